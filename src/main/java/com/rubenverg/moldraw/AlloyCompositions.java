@@ -0,0 +1,288 @@
+package com.rubenverg.moldraw;
+
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+
+import com.google.common.math.LongMath;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.*;
+import org.jetbrains.annotations.Nullable;
+import oshi.util.tuples.Pair;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * What every GT material is made of, for alloy charts: the components of its composition counted in whole parts, with
+ * nested compositions either kept as they are or broken down into their own components. Worked out for all registered
+ * materials on reload, for every combination of {@link MolDrawConfig.AlloyConfig#recursive} and
+ * {@link MolDrawConfig.AlloyConfig#partsByMass}, so a tooltip only does one lookup.
+ * <p>
+ * Breaking compositions down is exact: parts are added up as fractions in longs, moving to {@link BigInteger} when a
+ * long would overflow. Materials are evaluated level by level starting from those without components, each level in
+ * parallel. A composition that contains itself is cut where the material repeats, and that material is counted as is.
+ */
+public final class AlloyCompositions {
+
+    public static final AlloyCompositions EMPTY =
+            new AlloyCompositions(List.of(Map.of(), Map.of(), Map.of(), Map.of()));
+
+    // indexed by mode(recursive, partsByMass)
+    private final List<Map<Material, List<Pair<Material, Long>>>> tables;
+
+    private AlloyCompositions(List<Map<Material, List<Pair<Material, Long>>>> tables) {
+        this.tables = tables;
+    }
+
+    private static int mode(boolean recursive, boolean partsByMass) {
+        return (recursive ? 2 : 0) | (partsByMass ? 1 : 0);
+    }
+
+    /**
+     * The components of a material under the current alloy options, sorted largest first. Materials registered after
+     * the last reload are worked out on the spot.
+     */
+    public List<Pair<Material, Long>> get(Material material) {
+        return get(material, MolDrawConfig.INSTANCE.alloy.recursive, MolDrawConfig.INSTANCE.alloy.partsByMass);
+    }
+
+    List<Pair<Material, Long>> get(Material material, boolean recursive, boolean partsByMass) {
+        final var mode = mode(recursive, partsByMass);
+        final var components = tables.get(mode).get(material);
+        if (Objects.nonNull(components)) return components;
+        return compute(List.of(material)).tables.get(mode).get(material);
+    }
+
+    /** Material counts in the order the materials were first added. */
+    private record Counts(Material[] materials, long[] counts) {
+
+        static Counts of(Material material) {
+            return new Counts(new Material[] { material }, new long[] { 1 });
+        }
+    }
+
+    private record Evaluated(Counts flat, Counts recursive) {}
+
+    public static AlloyCompositions compute(Collection<Material> materials) {
+        final Reference2IntMap<Material> levels = new Reference2IntOpenHashMap<>();
+        final Map<Material, Set<Material>> cuts = new Reference2ObjectOpenHashMap<>();
+        final Set<Material> visiting = new ReferenceOpenHashSet<>();
+        for (final var material : materials) level(material, levels, cuts, visiting);
+
+        final List<List<Material>> byLevel = new ArrayList<>();
+        for (final var entry : levels.reference2IntEntrySet()) {
+            while (byLevel.size() <= entry.getIntValue()) byLevel.add(new ArrayList<>());
+            byLevel.get(entry.getIntValue()).add(entry.getKey());
+        }
+
+        final Map<Material, Counts> recursive = new Reference2ObjectOpenHashMap<>();
+        final Map<Material, Evaluated> evaluated = new Reference2ObjectOpenHashMap<>();
+        for (final var level : byLevel) {
+            // everything a level needs is in a lower level, so the map is only read while the level runs
+            final var results = new Evaluated[level.size()];
+            IntStream.range(0, results.length).parallel()
+                    .forEach(i -> results[i] = evaluate(level.get(i), recursive, cuts));
+            for (int i = 0; i < results.length; i++) {
+                recursive.put(level.get(i), results[i].recursive);
+                evaluated.put(level.get(i), results[i]);
+            }
+        }
+
+        final List<Map<Material, List<Pair<Material, Long>>>> tables = new ArrayList<>(4);
+        for (int mode = 0; mode < 4; mode++) {
+            final boolean isRecursive = (mode & 2) != 0, partsByMass = (mode & 1) != 0;
+            final Map<Material, List<Pair<Material, Long>>> table = new Reference2ObjectOpenHashMap<>();
+            for (final var entry : evaluated.entrySet())
+                table.put(entry.getKey(),
+                        sorted(isRecursive ? entry.getValue().recursive : entry.getValue().flat, partsByMass));
+            tables.add(Collections.unmodifiableMap(table));
+        }
+        return new AlloyCompositions(List.copyOf(tables));
+    }
+
+    /** Sets the level of a material and everything in it: 0 without components, else one more than its components. */
+    private static int level(Material material, Reference2IntMap<Material> levels, Map<Material, Set<Material>> cuts,
+                             Set<Material> visiting) {
+        if (levels.containsKey(material)) return levels.getInt(material);
+        visiting.add(material);
+        var level = 0;
+        final var components = material.getMaterialComponents();
+        if (Objects.nonNull(components)) for (final var component : components) {
+            if (visiting.contains(component.material())) {
+                MolDraw.LOGGER.warn("Composition of {} contains itself through {}", material.getResourceLocation(),
+                        component.material().getResourceLocation());
+                cuts.computeIfAbsent(material, _material -> new ReferenceOpenHashSet<>()).add(component.material());
+                continue;
+            }
+            level = Math.max(level, level(component.material(), levels, cuts, visiting) + 1);
+        }
+        visiting.remove(material);
+        levels.put(material, level);
+        return level;
+    }
+
+    private static Evaluated evaluate(Material material, Map<Material, Counts> recursive,
+                                      Map<Material, Set<Material>> cuts) {
+        final var components = material.getMaterialComponents();
+        if (Objects.isNull(components) || components.isEmpty()) {
+            final var self = Counts.of(material);
+            return new Evaluated(self, self);
+        }
+        final var cut = cuts.getOrDefault(material, Set.of());
+        final var flat = new Fractions();
+        final var deep = new Fractions();
+        for (final var component : components) {
+            flat.add(component.material(), component.amount(), 1);
+            if (cut.contains(component.material())) deep.add(component.material(), component.amount(), 1);
+            else deep.addAll(recursive.get(component.material()), component.amount());
+        }
+        return new Evaluated(flat.toCounts(), deep.toCounts());
+    }
+
+    private static List<Pair<Material, Long>> sorted(Counts counts, boolean partsByMass) {
+        final List<Pair<Material, Long>> list = new ArrayList<>(counts.materials.length);
+        for (int i = 0; i < counts.materials.length; i++) list.add(new Pair<>(counts.materials[i], counts.counts[i]));
+        list.sort(Comparator
+                .comparingLong((Pair<Material, Long> x) -> -(partsByMass ? x.getB() * x.getA().getMass() : x.getB()))
+                .thenComparing(x -> x.getA().getChemicalFormula()));
+        return List.copyOf(list);
+    }
+
+    /** Exact non-negative fractions per material, in longs until one of them overflows and in BigIntegers after. */
+    private static final class Fractions {
+
+        private final Reference2IntMap<Material> slots = new Reference2IntOpenHashMap<>();
+        private final List<Material> materials = new ArrayList<>();
+        private final LongArrayList nums = new LongArrayList(), dens = new LongArrayList();
+        private @Nullable List<BigInteger> bigNums, bigDens;
+
+        Fractions() {
+            slots.defaultReturnValue(-1);
+        }
+
+        private int slot(Material material) {
+            var slot = slots.getInt(material);
+            if (slot >= 0) return slot;
+            slot = materials.size();
+            slots.put(material, slot);
+            materials.add(material);
+            nums.add(0);
+            dens.add(1);
+            if (Objects.nonNull(bigNums)) {
+                bigNums.add(BigInteger.ZERO);
+                bigDens.add(BigInteger.ONE);
+            }
+            return slot;
+        }
+
+        /** Adds {@code amount} of each material in {@code inner}, split by their share of it. */
+        void addAll(Counts inner, long amount) {
+            try {
+                var total = 0L;
+                for (final var count : inner.counts) total = Math.addExact(total, count);
+                if (total == 0) return;
+                for (int i = 0; i < inner.materials.length; i++) {
+                    try {
+                        add(inner.materials[i], Math.multiplyExact(inner.counts[i], amount), total);
+                    } catch (ArithmeticException e) {
+                        add(slot(inner.materials[i]),
+                                BigInteger.valueOf(inner.counts[i]).multiply(BigInteger.valueOf(amount)),
+                                BigInteger.valueOf(total));
+                    }
+                }
+            } catch (ArithmeticException e) {
+                var total = BigInteger.ZERO;
+                for (final var count : inner.counts) total = total.add(BigInteger.valueOf(count));
+                for (int i = 0; i < inner.materials.length; i++)
+                    add(slot(inner.materials[i]),
+                            BigInteger.valueOf(inner.counts[i]).multiply(BigInteger.valueOf(amount)), total);
+            }
+        }
+
+        void add(Material material, long num, long den) {
+            final var slot = slot(material);
+            if (Objects.isNull(bigNums)) {
+                try {
+                    final long a = nums.getLong(slot), b = dens.getLong(slot);
+                    final var gcd = LongMath.gcd(b, den);
+                    final var newDen = Math.multiplyExact(b / gcd, den);
+                    final var newNum =
+                            Math.addExact(Math.multiplyExact(a, den / gcd), Math.multiplyExact(num, b / gcd));
+                    final var reduce = LongMath.gcd(newNum, newDen);
+                    nums.set(slot, newNum / reduce);
+                    dens.set(slot, newDen / reduce);
+                    return;
+                } catch (ArithmeticException e) {
+                    toBig();
+                }
+            }
+            add(slot, BigInteger.valueOf(num), BigInteger.valueOf(den));
+        }
+
+        private void add(int slot, BigInteger num, BigInteger den) {
+            toBig();
+            final BigInteger a = bigNums.get(slot), b = bigDens.get(slot);
+            final var newNum = a.multiply(den).add(num.multiply(b));
+            final var newDen = b.multiply(den);
+            final var reduce = newNum.gcd(newDen);
+            bigNums.set(slot, newNum.divide(reduce));
+            bigDens.set(slot, newDen.divide(reduce));
+        }
+
+        private void toBig() {
+            if (Objects.nonNull(bigNums)) return;
+            bigNums = new ArrayList<>(nums.size());
+            bigDens = new ArrayList<>(dens.size());
+            for (int i = 0; i < nums.size(); i++) {
+                bigNums.add(BigInteger.valueOf(nums.getLong(i)));
+                bigDens.add(BigInteger.valueOf(dens.getLong(i)));
+            }
+        }
+
+        /** Scales every fraction by the least common multiple of the denominators. */
+        Counts toCounts() {
+            final var materialArray = materials.toArray(Material[]::new);
+            if (Objects.isNull(bigNums)) {
+                try {
+                    var lcm = 1L;
+                    for (int i = 0; i < dens.size(); i++)
+                        lcm = Math.multiplyExact(lcm / LongMath.gcd(lcm, dens.getLong(i)), dens.getLong(i));
+                    final var counts = new long[materialArray.length];
+                    for (int i = 0; i < counts.length; i++)
+                        counts[i] = Math.multiplyExact(nums.getLong(i), lcm / dens.getLong(i));
+                    return new Counts(materialArray, counts);
+                } catch (ArithmeticException e) {
+                    toBig();
+                }
+            }
+            var lcm = BigInteger.ONE;
+            for (final var den : bigDens) lcm = lcm.divide(lcm.gcd(den)).multiply(den);
+            final var counts = new BigInteger[materialArray.length];
+            for (int i = 0; i < counts.length; i++) counts[i] = bigNums.get(i).multiply(lcm.divide(bigDens.get(i)));
+            return new Counts(materialArray, fit(counts));
+        }
+
+        /**
+         * Counts that fit in longs: as they are if they do, else divided by their common factor, and if that's still
+         * not enough, scaled down to 62 bits, which is only approximate but far finer than a chart can show.
+         */
+        private static long[] fit(BigInteger[] counts) {
+            if (Arrays.stream(counts).allMatch(count -> count.bitLength() < Long.SIZE))
+                return Arrays.stream(counts).mapToLong(BigInteger::longValue).toArray();
+            var gcd = BigInteger.ZERO;
+            for (final var count : counts) gcd = gcd.gcd(count);
+            var bits = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (gcd.signum() > 0) counts[i] = counts[i].divide(gcd);
+                bits = Math.max(bits, counts[i].bitLength());
+            }
+            final var shift = Math.max(0, bits - 62);
+            final var result = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                final var scaled = counts[i].shiftRight(shift).longValue();
+                result[i] = scaled == 0 && counts[i].signum() > 0 ? 1 : scaled;
+            }
+            return result;
+        }
+    }
+}
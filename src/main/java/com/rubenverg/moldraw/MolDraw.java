@@ -1,9 +1,6 @@
 package com.rubenverg.moldraw;
 
-import com.gregtechceu.gtceu.api.GTCEuAPI;
-import com.gregtechceu.gtceu.api.data.chemical.ChemicalHelper;
 import com.gregtechceu.gtceu.api.data.chemical.material.Material;
-import com.gregtechceu.gtceu.api.data.chemical.material.stack.MaterialStack;
 import com.gregtechceu.gtceu.utils.GTUtil;
 
 import net.minecraft.MethodsReturnNonnullByDefault;
@@ -12,17 +9,17 @@ import net.minecraft.data.DataProvider;
 import net.minecraft.data.PackOutput;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.FormattedText;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.server.packs.resources.SimplePreparableReloadListener;
-import net.minecraft.util.Unit;
 import net.minecraft.util.profiling.ProfilerFiller;
 import net.minecraft.world.inventory.tooltip.TooltipComponent;
-import net.minecraft.world.item.BucketItem;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.client.event.RegisterClientReloadListenersEvent;
 import net.minecraftforge.client.event.RegisterClientTooltipComponentFactoriesEvent;
 import net.minecraftforge.client.event.RenderTooltipEvent;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.data.event.GatherDataEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
@@ -34,14 +31,15 @@ import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import com.google.common.hash.HashCode;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonSyntaxException;
 import com.mojang.datafixers.util.Either;
 import com.rubenverg.moldraw.component.AlloyTooltipComponent;
+import com.rubenverg.moldraw.component.MoleculeLayout;
 import com.rubenverg.moldraw.component.MoleculeTooltipComponent;
+import com.rubenverg.moldraw.component.RasterCache;
 import com.rubenverg.moldraw.data.AlloysData;
 import com.rubenverg.moldraw.data.MoleculesData;
 import com.rubenverg.moldraw.molecule.*;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -52,7 +50,6 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.IntStream;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -73,6 +70,8 @@ public class MolDraw {
             modEventBus.addListener(this::registerClientReloadListeners);
 
             MinecraftForge.EVENT_BUS.addListener(this::tooltipGatherComponents);
+            MinecraftForge.EVENT_BUS.addListener(this::renderTick);
+            MinecraftForge.EVENT_BUS.addListener(this::clientTick);
         });
     }
 
@@ -108,6 +107,7 @@ public class MolDraw {
 
                     @Override
                     public @NotNull CompletableFuture<?> run(@NotNull CachedOutput cachedOutput) {
+                        final Map<String, Map<String, Molecule>> packs = new HashMap<>();
                         for (final var entry : MoleculesData.molecules().entrySet()) {
                             final var json = gson.toJson(entry.getValue(), Molecule.class);
                             try {
@@ -116,6 +116,19 @@ public class MolDraw {
                             } catch (IOException e) {
                                 throw new RuntimeException(e);
                             }
+                            packs.computeIfAbsent(entry.getKey().getNamespace(), _namespace -> new HashMap<>())
+                                    .put(entry.getKey().getPath(), entry.getValue());
+                        }
+                        for (final var entry : packs.entrySet()) {
+                            try {
+                                final var pack = MoleculePack.write(entry.getValue());
+                                cachedOutput.writeIfNeeded(
+                                        output.getOutputFolder(PackOutput.Target.RESOURCE_PACK)
+                                                .resolve(entry.getKey()).resolve(MoleculePack.PATH),
+                                        pack, HashCode.fromInt(Arrays.hashCode(pack)));
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
                         }
                         for (final var entry : AlloysData.alloys().entrySet()) {
                             final var json = gson.toJson(AlloysData.write(entry.getValue()));
@@ -143,130 +156,84 @@ public class MolDraw {
         event.register(AlloyTooltipComponent.class, AlloyTooltipComponent.ClientAlloyTooltipComponent::new);
     }
 
-    private static final Map<Material, Molecule> molecules = new HashMap<>();
-    private static final Map<Material, Optional<List<Pair<Material, Long>>>> alloys = new HashMap<>();
-
     public void registerClientReloadListeners(RegisterClientReloadListenersEvent event) {
-        event.registerReloadListener(new SimplePreparableReloadListener<Unit>() {
+        event.registerReloadListener(new SimplePreparableReloadListener<Reference2IntMap<Material>>() {
 
             @MethodsReturnNonnullByDefault
             @ParametersAreNonnullByDefault
             @Override
-            protected Unit prepare(ResourceManager resourceManager, ProfilerFiller profilerFiller) {
-                return Unit.INSTANCE;
+            protected Reference2IntMap<Material> prepare(ResourceManager resourceManager,
+                                                         ProfilerFiller profilerFiller) {
+                return MoleculeColorize.computeMaterialColors(resourceManager);
             }
 
             @MethodsReturnNonnullByDefault
             @ParametersAreNonnullByDefault
             @Override
-            protected void apply(Unit unit, ResourceManager resourceManager, ProfilerFiller profilerFiller) {
-                MoleculeColorize.invalidateColorCache();
+            protected void apply(Reference2IntMap<Material> materialColors, ResourceManager resourceManager,
+                                 ProfilerFiller profilerFiller) {
+                MoleculeColorize.publishMaterialColors(materialColors);
+                Element.reindex();
+                MolDrawConfig.bumpGeneration();
+                RasterCache.clear();
             }
         });
 
-        event.registerReloadListener(
-
-                new SimplePreparableReloadListener<Map<Material, Molecule>>() {
-
-                    @MethodsReturnNonnullByDefault
-                    @ParametersAreNonnullByDefault
-                    @Override
-                    protected Map<Material, Molecule> prepare(ResourceManager resourceManager,
-                                                              ProfilerFiller profilerFiller) {
-                        final Map<Material, Molecule> molecules = new HashMap<>();
-                        for (final var id : resourceManager
-                                .listResources("molecules", path -> path.toString().endsWith(".json")).keySet()) {
-                            try (final var stream = resourceManager.open(id)) {
-                                final var file = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
-                                final var material = GTCEuAPI.materialManager
-                                        .getMaterial(id.toString().replace(".json", "").replace("molecules/", ""));
-                                if (Objects.isNull(material)) {
-                                    continue;
-                                }
-                                final var molecule = gson.fromJson(file, Molecule.class);
-                                molecules.put(material, molecule);
-                            } catch (IOException | JsonSyntaxException e) {
-                                throw new RuntimeException(e);
-                            }
-                        }
-                        return molecules;
-                    }
-
-                    @MethodsReturnNonnullByDefault
-                    @ParametersAreNonnullByDefault
-                    @Override
-                    protected void apply(Map<Material, Molecule> prepareResult, ResourceManager resourceManager,
-                                         ProfilerFiller profilerFiller) {
-                        molecules.clear();
-                        molecules.putAll(prepareResult);
-                    }
-                });
-        event.registerReloadListener(
-                new SimplePreparableReloadListener<Map<Material, Optional<List<Pair<Material, Long>>>>>() {
+        event.registerReloadListener(new SimplePreparableReloadListener<MolDrawLoader.Loaded>() {
 
-                    @MethodsReturnNonnullByDefault
-                    @ParametersAreNonnullByDefault
-                    @Override
-                    protected Map<Material, Optional<List<Pair<Material, Long>>>> prepare(ResourceManager resourceManager,
-                                                                                          ProfilerFiller profilerFiller) {
-                        final Map<Material, Optional<List<Pair<Material, Long>>>> alloys = new HashMap<>();
-                        for (final var id : resourceManager
-                                .listResources("alloys", path -> path.toString().endsWith(".json")).keySet()) {
-                            try (final var stream = resourceManager.open(id)) {
-                                final var file = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
-                                final var material = GTCEuAPI.materialManager
-                                        .getMaterial(id.toString().replace(".json", "").replace("alloys/", ""));
-                                if (Objects.isNull(material)) {
-                                    continue;
-                                }
-                                final var alloy = AlloysData.read(gson.fromJson(file, JsonElement.class));
-                                if (alloy.isEmpty()) {
-                                    alloys.put(material, Optional.empty());
-                                } else {
-                                    alloys.put(material, Optional.of(alloy.get().stream().map(pair -> {
-                                        final var subMat = GTCEuAPI.materialManager.getMaterial(pair.getA().toString());
-                                        if (Objects.isNull(subMat) || subMat.isNull()) throw new RuntimeException(
-                                                "Alloy JSON contains a material that doesn't exist");
-                                        return new Pair<>(subMat, pair.getB());
-                                    }).toList()));
-                                }
-                            } catch (IOException | JsonSyntaxException e) {
-                                throw new RuntimeException(e);
-                            }
-                        }
-                        return alloys;
-                    }
+            @MethodsReturnNonnullByDefault
+            @ParametersAreNonnullByDefault
+            @Override
+            protected MolDrawLoader.Loaded prepare(ResourceManager resourceManager, ProfilerFiller profilerFiller) {
+                return MolDrawLoader.load(resourceManager, MolDrawConfig.INSTANCE.performance.lazyMolecules);
+            }
 
-                    @MethodsReturnNonnullByDefault
-                    @ParametersAreNonnullByDefault
-                    @Override
-                    protected void apply(Map<Material, Optional<List<Pair<Material, Long>>>> prepareResult,
-                                         ResourceManager resourceManager, ProfilerFiller profilerFiller) {
-                        alloys.clear();
-                        alloys.putAll(prepareResult);
-                    }
-                });
+            @MethodsReturnNonnullByDefault
+            @ParametersAreNonnullByDefault
+            @Override
+            protected void apply(MolDrawLoader.Loaded loaded, ResourceManager resourceManager,
+                                 ProfilerFiller profilerFiller) {
+                MolDrawRegistry.publish(loaded);
+                WarmUp.reloaded();
+            }
+        });
     }
 
     public static @Nullable Molecule getMolecule(Material material) {
-        return molecules.get(material);
+        return MoleculeStore.get(material);
+    }
+
+    public static @Nullable Molecule getMolecule(ResourceLocation id) {
+        final var material = MolDrawRegistry.current().material(id);
+        return Objects.isNull(material) ? null : getMolecule(material);
     }
 
     public static @Nullable List<Pair<Material, Long>> getAlloy(Material material) {
-        return Optional.ofNullable(alloys.get(material))
+        return Optional.ofNullable(MolDrawRegistry.current().alloy(material))
                 .map(opt -> opt.orElseGet(() -> AlloyTooltipComponent.deriveComponents(material))).orElse(null);
     }
 
+    public static List<Material> materialsContaining(Element element) {
+        return MolDrawRegistry.current().materialsContaining(element);
+    }
+
     @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
-    public static void tryColorizeFormula(Material material, OptionalInt idx,
+    public static void tryColorizeFormula(TooltipDecisions.Decision decision, OptionalInt idx,
                                           List<Either<FormattedText, TooltipComponent>> tooltipElements) {
         if (!MolDrawConfig.INSTANCE.color.colors) return;
-        if (Objects.nonNull(material.getMaterialComponents()) && !material.getMaterialComponents().isEmpty() ||
-                material.isElement()) {
-            final var coloredFormula = MoleculeColorize.coloredFormula(new MaterialStack(material, 1), true);
-            if (idx.isPresent()) tooltipElements.set(idx.getAsInt(), Either.left(coloredFormula));
-            else tooltipElements.add(1, Either.left(coloredFormula));
-        }
+        final var coloredFormula = decision.coloredFormula();
+        if (Objects.isNull(coloredFormula)) return;
+        if (idx.isPresent()) tooltipElements.set(idx.getAsInt(), Either.left(coloredFormula));
+        else tooltipElements.add(1, Either.left(coloredFormula));
+    }
+
+    public void renderTick(TickEvent.RenderTickEvent event) {
+        if (event.phase == TickEvent.Phase.START) MoleculeLayout.beginFrame();
+        else WarmUp.renderTick();
+    }
+
+    public void clientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase == TickEvent.Phase.END) WarmUp.clientTick();
     }
 
     @SubscribeEvent
@@ -275,24 +242,13 @@ public class MolDraw {
         // event.getTooltipElements().add(0, Either.right(new MoleculeTooltipComponent(new Molecule()
         // )));
 
-        Material material;
-        if (event.getItemStack().getItem() instanceof BucketItem bi) {
-            material = ChemicalHelper.getMaterial(bi.getFluid());
-        } else {
-            final var materialStack = ChemicalHelper.getMaterialEntry(event.getItemStack().getItem());
-            if (materialStack.isEmpty()) return;
-            material = materialStack.material();
-        }
-        if (material.isNull()) return;
-        final var mol = getMolecule(material);
-        final var alloy = getAlloy(material);
+        final var decision = TooltipDecisions.forItem(event.getItemStack().getItem());
+        if (Objects.isNull(decision)) return;
+        final var mol = decision.molecule();
+        final var alloy = decision.alloy();
         final var tooltipElements = event.getTooltipElements();
 
-        final var idx = IntStream.range(0, tooltipElements.size())
-                .filter(i -> tooltipElements.get(i).left()
-                        .map(tt -> tt.getString().equals(material.getChemicalFormula()))
-                        .orElse(false))
-                .reduce((a, b) -> b);
+        final var idx = decision.lastFormulaLine(tooltipElements);
 
         if (!MolDrawConfig.INSTANCE.onlyShowOnShift || GTUtil.isShiftDown()) {
             if (!Objects.isNull(mol) && MolDrawConfig.INSTANCE.molecule.showMolecules) {
@@ -309,10 +265,10 @@ public class MolDraw {
                 // else tooltipElements.add(1, Either.right(new
                 // AlloyTooltipComponent(AlloyTooltipComponent.deriveComponents(material))));
             } else {
-                tryColorizeFormula(material, idx, tooltipElements);
+                tryColorizeFormula(decision, idx, tooltipElements);
             }
         } else {
-            tryColorizeFormula(material, idx, tooltipElements);
+            tryColorizeFormula(decision, idx, tooltipElements);
 
             if (MolDrawConfig.INSTANCE.onlyShowOnShift) {
                 final int ttIndex = idx.orElse(1) + 1;
@@ -1,17 +1,19 @@
 package com.rubenverg.moldraw;
 
-import com.rubenverg.moldraw.component.AlloyTooltipComponent;
 import dev.toma.configuration.Configuration;
 import dev.toma.configuration.client.IValidationHandler;
 import dev.toma.configuration.config.Config;
 import dev.toma.configuration.config.Configurable;
 import dev.toma.configuration.config.format.ConfigFormats;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Config(id = MolDraw.MOD_ID)
 public class MolDrawConfig {
 
     public static MolDrawConfig INSTANCE;
     private static final Object LOCK = new Object();
+    private static final AtomicInteger GENERATION = new AtomicInteger();
 
     public static void init() {
         synchronized (LOCK) {
@@ -21,6 +23,18 @@ public class MolDrawConfig {
         }
     }
 
+    /**
+     * Bumped whenever an option that changes how drawings or tooltips look is updated, and on resource reload; caches
+     * of laid out or rasterized drawings, colors, formulas and tooltip decisions compare against it.
+     */
+    public static int generation() {
+        return GENERATION.get();
+    }
+
+    public static int bumpGeneration() {
+        return GENERATION.incrementAndGet();
+    }
+
     @Configurable
     public boolean enabled = true;
 
@@ -33,17 +47,36 @@ public class MolDrawConfig {
     public static class ColorConfig {
 
         @Configurable
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
         public boolean colors = true;
 
         @Configurable
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
         public boolean useMaterialColors = true;
 
         @Configurable
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
         public String defaultColor = "§e";
 
         @Configurable
         @Configurable.Range(min = 0, max = 1)
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
         public float minimumBrightness = 0.1f;
+
+        @SuppressWarnings("unused")
+        private void bumpGeneration(boolean value, IValidationHandler handler) {
+            MolDrawConfig.bumpGeneration();
+        }
+
+        @SuppressWarnings("unused")
+        private void bumpGeneration(String value, IValidationHandler handler) {
+            MolDrawConfig.bumpGeneration();
+        }
+
+        @SuppressWarnings("unused")
+        private void bumpGeneration(float value, IValidationHandler handler) {
+            MolDrawConfig.bumpGeneration();
+        }
     }
 
     @Configurable
@@ -56,6 +89,7 @@ public class MolDrawConfig {
 
         @Configurable
         @Configurable.Range(min = 10, max = 50)
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
         public int moleculeScale = 20;
 
         public enum AromaticMode {
@@ -74,6 +108,7 @@ public class MolDrawConfig {
         }
 
         @Configurable
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
         public AromaticMode benzeneCircle = AromaticMode.DOUBLE_BONDS;
 
         @Configurable
@@ -81,6 +116,21 @@ public class MolDrawConfig {
 
         @Configurable
         public float spinSpeedMultiplier = 1;
+
+        @Configurable
+        @Configurable.Range(min = 0, max = 360)
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
+        public int spinKeyframes = 72;
+
+        @SuppressWarnings("unused")
+        private void bumpGeneration(int value, IValidationHandler handler) {
+            MolDrawConfig.bumpGeneration();
+        }
+
+        @SuppressWarnings("unused")
+        private void bumpGeneration(AromaticMode value, IValidationHandler handler) {
+            MolDrawConfig.bumpGeneration();
+        }
     }
 
     @Configurable
@@ -93,6 +143,7 @@ public class MolDrawConfig {
 
         @Configurable
         @Configurable.Range(min = 25, max = 50)
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
         public int pieChartRadius = 32;
 
         @Configurable
@@ -105,19 +156,68 @@ public class MolDrawConfig {
 
         @SuppressWarnings("unused")
         private void invalidateAlloyCache(boolean value, IValidationHandler handler) {
-            AlloyTooltipComponent.invalidateComponentsCache();
+            MolDrawConfig.bumpGeneration();
+        }
+
+        @SuppressWarnings("unused")
+        private void bumpGeneration(int value, IValidationHandler handler) {
+            MolDrawConfig.bumpGeneration();
         }
     }
 
+    @Configurable
+    public PerformanceConfig performance = new PerformanceConfig();
+
+    public static class PerformanceConfig {
+
+        @Configurable
+        @Configurable.Range(min = 0, max = 256)
+        public int rasterCacheMegabytes = 16;
+
+        @Configurable
+        public boolean lazyMolecules = true;
+
+        @Configurable
+        @Configurable.Range(min = 16, max = 4096)
+        public int moleculeCacheSize = 256;
+
+        @Configurable
+        @Configurable.Range(min = 0, max = 100)
+        public int moleculeLoadMillis = 5;
+
+        @Configurable
+        public boolean warmUp = true;
+
+        @Configurable
+        @Configurable.Range(min = 1, max = 100)
+        public int warmUpCpuPercent = 25;
+
+        @Configurable
+        @Configurable.Range(min = 0, max = 20)
+        public int warmUpMillisPerFrame = 2;
+    }
+
     @Configurable
     public FunConfig fun = new FunConfig();
 
     public static class FunConfig {
 
         @Configurable
+        @Configurable.ValueUpdateCallback(method = "bumpGeneration")
         public boolean aromanticBenzene = false;
+
+        @SuppressWarnings("unused")
+        private void bumpGeneration(boolean value, IValidationHandler handler) {
+            MolDrawConfig.bumpGeneration();
+        }
     }
 
     @Configurable
+    @Configurable.ValueUpdateCallback(method = "bumpGeneration")
     public boolean debugMode = false;
+
+    @SuppressWarnings("unused")
+    private void bumpGeneration(boolean value, IValidationHandler handler) {
+        MolDrawConfig.bumpGeneration();
+    }
 }
@@ -0,0 +1,177 @@
+package com.rubenverg.moldraw;
+
+import com.gregtechceu.gtceu.api.GTCEuAPI;
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.server.packs.resources.ResourceManager;
+
+import com.google.gson.JsonElement;
+import com.rubenverg.moldraw.data.AlloysData;
+import com.rubenverg.moldraw.molecule.Molecule;
+import com.rubenverg.moldraw.molecule.MoleculePack;
+import com.rubenverg.moldraw.molecule.PackedMolecule;
+import org.jetbrains.annotations.Nullable;
+import oshi.util.tuples.Pair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.IntStream;
+
+/**
+ * Loads every {@code molecules/*.json} and {@code alloys/*.json} resource in one go. Files are parsed in parallel
+ * straight from their streams, and a file that fails to load is logged and skipped without affecting the others.
+ * Molecules are taken from the namespace's {@link MoleculePack} instead when the JSON file comes from the same pack,
+ * so a resource pack that overrides a single JSON file still wins. In lazy mode molecules are only indexed here and
+ * parsed by {@link MoleculeStore} when first needed.
+ */
+public class MolDrawLoader {
+
+    private static final String MOLECULES = "molecules", ALLOYS = "alloys", JSON = ".json";
+
+    /**
+     * @param molecules     molecules parsed up front and packed, in eager mode
+     * @param lazyMolecules where to parse each molecule from later, in lazy mode
+     * @param compositions  the components of every registered material, for alloys without an explicit entry
+     */
+    public record Loaded(Map<Material, PackedMolecule> molecules, Map<Material, MoleculeSource> lazyMolecules,
+                         Map<Material, Optional<List<Pair<Material, Long>>>> alloys,
+                         AlloyCompositions compositions) {}
+
+    /**
+     * Where a molecule lives, either a JSON file or an entry of a {@link MoleculePack}. The parser returns
+     * {@code null} while the file can't be read, which is the case while a later reload is underway.
+     */
+    public record MoleculeSource(ResourceLocation id, Callable<Molecule> parser) {
+
+        /** @return the molecule, or {@code null} if it can't be read until the reload underway is done */
+        public @Nullable Molecule load() throws Exception {
+            return parser.call();
+        }
+    }
+
+    private record Source(String directory, ResourceLocation id, Resource resource) {
+
+        String name() {
+            final var path = id.getPath();
+            return path.substring(directory.length() + 1, path.length() - JSON.length());
+        }
+    }
+
+    private record Pack(String sourcePackId, MoleculePack pack) {}
+
+    private record Result(Material material, @Nullable PackedMolecule molecule, @Nullable MoleculeSource moleculeSource,
+                          @Nullable Optional<List<Pair<Material, Long>>> alloy) {}
+
+    /**
+     * @param lazy only index the molecules instead of parsing them, see {@link MoleculeStore}
+     */
+    public static Loaded load(ResourceManager resourceManager, boolean lazy) {
+        final List<Source> sources = new ArrayList<>();
+        for (final var directory : List.of(MOLECULES, ALLOYS)) {
+            resourceManager.listResources(directory, path -> path.getPath().endsWith(JSON))
+                    .forEach((id, resource) -> sources.add(new Source(directory, id, resource)));
+        }
+
+        final var packs = loadPacks(resourceManager);
+        final var results = new Result[sources.size()];
+        IntStream.range(0, results.length).parallel()
+                .forEach(i -> results[i] = loadOne(sources.get(i), packs, lazy));
+
+        // merged in listing order, so that which file wins for a material doesn't depend on scheduling
+        final Map<Material, PackedMolecule> molecules = new HashMap<>();
+        final Map<Material, MoleculeSource> lazyMolecules = new HashMap<>();
+        final Map<Material, Optional<List<Pair<Material, Long>>>> alloys = new HashMap<>();
+        for (final var result : results) {
+            if (Objects.isNull(result)) continue;
+            if (Objects.nonNull(result.molecule)) molecules.put(result.material, result.molecule);
+            if (Objects.nonNull(result.moleculeSource)) lazyMolecules.put(result.material, result.moleculeSource);
+            if (Objects.nonNull(result.alloy)) alloys.put(result.material, result.alloy);
+        }
+        final var compositions = AlloyCompositions.compute(GTCEuAPI.materialManager.getRegisteredMaterials());
+        return new Loaded(molecules, lazyMolecules, alloys, compositions);
+    }
+
+    private static Map<String, Pack> loadPacks(ResourceManager resourceManager) {
+        final Map<String, Pack> packs = new HashMap<>();
+        for (final var namespace : resourceManager.getNamespaces()) {
+            final var id = new ResourceLocation(namespace, MoleculePack.PATH);
+            final var resource = resourceManager.getResource(id);
+            if (resource.isEmpty()) continue;
+            try (final var stream = resource.get().open()) {
+                final var pack = MoleculePack.read(ByteBuffer.wrap(stream.readAllBytes()));
+                packs.put(namespace, new Pack(resource.get().sourcePackId(), pack));
+            } catch (Exception e) {
+                MolDraw.LOGGER.error("Failed to load {}, falling back to JSON", id, e);
+            }
+        }
+        return packs;
+    }
+
+    private static @Nullable Material materialFor(Source source) {
+        final var material = GTCEuAPI.materialManager.getMaterial(source.id.getNamespace() + ":" + source.name());
+        return Objects.isNull(material) || material.isNull() ? null : material;
+    }
+
+    private static @Nullable MoleculePack packFor(Source source, Map<String, Pack> packs) {
+        final var pack = packs.get(source.id.getNamespace());
+        if (Objects.nonNull(pack) && pack.sourcePackId.equals(source.resource.sourcePackId()) &&
+                pack.pack.has(source.name()))
+            return pack.pack;
+        return null;
+    }
+
+    private static Molecule parse(Resource resource) throws IOException {
+        try (final var reader = resource.openAsReader()) {
+            final var molecule = MolDraw.gson.fromJson(reader, Molecule.class);
+            if (Objects.isNull(molecule)) throw new IllegalArgumentException("Molecule file is empty");
+            return molecule;
+        }
+    }
+
+    private static MoleculeSource moleculeSource(Source source, Map<String, Pack> packs) {
+        final var pack = packFor(source, packs);
+        final var name = source.name();
+        if (Objects.nonNull(pack)) return new MoleculeSource(source.id, () -> pack.molecule(name));
+        final var sourcePackId = source.resource.sourcePackId();
+        return new MoleculeSource(source.id, () -> {
+            // the listed resource is closed along with its pack once the next reload starts, so it is looked up again;
+            // while that reload is underway the packs are the new ones, and this source will be replaced anyway
+            final var resource = Minecraft.getInstance().getResourceManager().getResource(source.id)
+                    .filter(r -> r.sourcePackId().equals(sourcePackId));
+            return resource.isPresent() ? parse(resource.get()) : null;
+        });
+    }
+
+    private static @Nullable Result loadOne(Source source, Map<String, Pack> packs, boolean lazy) {
+        final var material = materialFor(source);
+        if (Objects.isNull(material)) return null;
+        try {
+            if (source.directory.equals(MOLECULES)) {
+                if (lazy) return new Result(material, null, moleculeSource(source, packs), null);
+                final var pack = packFor(source, packs);
+                final var molecule = Objects.nonNull(pack) ? pack.molecule(source.name()) : parse(source.resource);
+                return new Result(material, PackedMolecule.pack(Objects.requireNonNull(molecule)), null, null);
+            }
+            try (final var reader = source.resource.openAsReader()) {
+                final var alloy = AlloysData.read(MolDraw.gson.fromJson(reader, JsonElement.class));
+                if (alloy.isEmpty()) return new Result(material, null, null, Optional.empty());
+                final List<Pair<Material, Long>> components = new ArrayList<>();
+                for (final var pair : alloy.get()) {
+                    final var subMat = GTCEuAPI.materialManager.getMaterial(pair.getA().toString());
+                    if (Objects.isNull(subMat) || subMat.isNull()) throw new IllegalArgumentException(
+                            "Alloy contains a material that doesn't exist: " + pair.getA());
+                    components.add(new Pair<>(subMat, pair.getB()));
+                }
+                return new Result(material, null, null, Optional.of(List.copyOf(components)));
+            }
+        } catch (Exception e) {
+            MolDraw.LOGGER.error("Failed to load {}", source.id, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.rubenverg.moldraw;
+
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+
+import net.minecraft.resources.ResourceLocation;
+
+import com.rubenverg.moldraw.molecule.Element;
+import com.rubenverg.moldraw.molecule.PackedMolecule;
+import org.jetbrains.annotations.Nullable;
+import oshi.util.tuples.Pair;
+
+import java.util.*;
+
+/**
+ * Everything the last resource reload loaded, as one immutable snapshot. A reload builds a new snapshot and swaps it
+ * in with a single volatile write, so tooltips drawn by JEI or EMI while resources reload see either the old registry
+ * or the new one, never a half-filled one.
+ * <p>
+ * Each snapshot carries the {@link MolDrawConfig#generation()} it was published at, and publishing bumps it, so every
+ * cache keyed on the generation drops entries from the previous registry without being told to.
+ *
+ * @param molecules     molecules parsed up front and packed, in eager mode
+ * @param lazyMolecules where to parse each molecule from later, in lazy mode
+ * @param compositions  the components of every registered material, for alloys without an explicit entry
+ * @param byId          materials with a molecule or alloy, by resource location
+ * @param byElement     materials with a molecule or alloy, by the elements in their chemical composition
+ */
+public record MolDrawRegistry(int generation, Map<Material, PackedMolecule> molecules,
+                              Map<Material, MolDrawLoader.MoleculeSource> lazyMolecules,
+                              Map<Material, Optional<List<Pair<Material, Long>>>> alloys,
+                              AlloyCompositions compositions, Map<ResourceLocation, Material> byId,
+                              Map<Element, List<Material>> byElement) {
+
+    public static final MolDrawRegistry EMPTY =
+            new MolDrawRegistry(-1, Map.of(), Map.of(), Map.of(), AlloyCompositions.EMPTY, Map.of(), Map.of());
+
+    private static volatile MolDrawRegistry current = EMPTY;
+
+    public static MolDrawRegistry current() {
+        return current;
+    }
+
+    /** Builds the snapshot for a reload and makes it current. Called on the render thread. */
+    public static MolDrawRegistry publish(MolDrawLoader.Loaded loaded) {
+        final Set<Material> materials = new LinkedHashSet<>();
+        materials.addAll(loaded.molecules().keySet());
+        materials.addAll(loaded.lazyMolecules().keySet());
+        materials.addAll(loaded.alloys().keySet());
+
+        final Map<ResourceLocation, Material> byId = new HashMap<>();
+        final Map<Element, List<Material>> byElement = new HashMap<>();
+        for (final var material : materials) {
+            byId.put(material.getResourceLocation(), material);
+            final Set<Element> elements = new LinkedHashSet<>();
+            collectElements(material, new HashSet<>(), elements);
+            for (final var element : elements)
+                byElement.computeIfAbsent(element, _element -> new ArrayList<>()).add(material);
+        }
+        byElement.replaceAll((_element, list) -> List.copyOf(list));
+
+        final var registry = new MolDrawRegistry(MolDrawConfig.bumpGeneration(), Map.copyOf(loaded.molecules()),
+                Map.copyOf(loaded.lazyMolecules()), Map.copyOf(loaded.alloys()), loaded.compositions(),
+                Map.copyOf(byId), Map.copyOf(byElement));
+        current = registry;
+        return registry;
+    }
+
+    private static void collectElements(Material material, Set<Material> seen, Set<Element> into) {
+        if (!seen.add(material)) return;
+        final var element = Element.byMaterial(material);
+        if (Objects.nonNull(element)) into.add(element);
+        final var components = material.getMaterialComponents();
+        if (Objects.isNull(components)) return;
+        for (final var component : components) collectElements(component.material(), seen, into);
+    }
+
+    /** Whether there is a molecule for this material, without loading it. */
+    public boolean hasMolecule(Material material) {
+        return molecules.containsKey(material) || lazyMolecules.containsKey(material);
+    }
+
+    public @Nullable Material material(ResourceLocation id) {
+        return byId.get(id);
+    }
+
+    public List<Material> materialsContaining(Element element) {
+        return byElement.getOrDefault(element, List.of());
+    }
+
+    /**
+     * @return the alloy entry for the material, empty if its components are derived from its composition (see
+     *         {@link #compositions()}), or {@code null} if it has none
+     */
+    @SuppressWarnings("OptionalAssignedToNull")
+    public @Nullable Optional<List<Pair<Material, Long>>> alloy(Material material) {
+        return alloys.get(material);
+    }
+}
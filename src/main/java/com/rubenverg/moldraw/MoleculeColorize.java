@@ -1,28 +1,36 @@
 package com.rubenverg.moldraw;
 
+import com.gregtechceu.gtceu.api.GTCEuAPI;
 import com.gregtechceu.gtceu.api.data.chemical.material.Material;
 import com.gregtechceu.gtceu.api.data.chemical.material.stack.MaterialStack;
 import com.gregtechceu.gtceu.api.fluids.GTFluid;
 import com.gregtechceu.gtceu.utils.FormattingUtil;
 
 import net.minecraft.ChatFormatting;
-import net.minecraft.client.Minecraft;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.Style;
+import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.util.FastColor;
+import net.minecraft.util.FormattedCharSequence;
 import net.minecraftforge.client.extensions.common.IClientFluidTypeExtensions;
 
 import com.mojang.blaze3d.platform.NativeImage;
 import com.rubenverg.moldraw.molecule.Element;
 import com.rubenverg.moldraw.molecule.MathUtils;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMaps;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
 import java.io.IOException;
-import java.math.BigInteger;
+import java.util.List;
 import java.util.Objects;
+import java.util.stream.IntStream;
 
 public class MoleculeColorize {
 
@@ -46,65 +54,122 @@ public class MoleculeColorize {
         return 0.21 * red + 0.72 * green + 0.07 * blue;
     }
 
-    private static final Object2IntMap<Material> COLOR_CACHE = new Object2IntOpenHashMap<>();
+    // raw material colors worked out during the last resource reload, replaced as a whole
+    private static volatile Reference2IntMap<Material> materialColors = Reference2IntMaps.emptyMap();
 
-    public static void invalidateColorCache() {
-        COLOR_CACHE.clear();
+    private record ColoredFormula(Component component, FormattedCharSequence text) {}
+
+    private static final Reference2ObjectMap<Material, ColoredFormula> FORMULA_CACHE =
+            new Reference2ObjectOpenHashMap<>();
+
+    // final, lightened colors; only valid for resolvedGeneration
+    private static final Reference2IntMap<Material> MATERIAL_COLORS = new Reference2IntOpenHashMap<>();
+    private static final Reference2IntMap<Element> ELEMENT_COLORS = new Reference2IntOpenHashMap<>();
+    private static final Int2IntMap LIGHTENED = new Int2IntOpenHashMap();
+    private static int defaultColor = FALLBACK_COLOR;
+    private static int resolvedGeneration = -1;
+
+    public static synchronized void invalidateColorCache() {
+        resolvedGeneration = -1;
+    }
+
+    private static synchronized void checkResolved() {
+        if (resolvedGeneration == MolDrawConfig.generation()) return;
+        FORMULA_CACHE.clear();
+        MATERIAL_COLORS.clear();
+        ELEMENT_COLORS.clear();
+        LIGHTENED.clear();
+        defaultColor = configColor(null);
+        resolvedGeneration = MolDrawConfig.generation();
+    }
+
+    /**
+     * {@link #configColor(String) configColor(null)}, parsed once per config change.
+     */
+    public static synchronized int defaultColor() {
+        checkResolved();
+        return defaultColor;
+    }
+
+    private static int quickColorForMaterial(Material material) {
+        if (material.getMaterialSecondaryARGB() != 0xffffffff) {
+            final int primary = material.getMaterialARGB(), secondary = material.getMaterialSecondaryARGB();
+            return brightness(primary) > brightness(secondary) ? primary : secondary;
+        }
+        return material.getMaterialARGB();
     }
 
-    private static int doGetColorForMaterial(Material material) {
+    private static int doGetColorForMaterial(Material material, ResourceManager resourceManager) {
         if (material.getMaterialARGB() == 0xffffffff && material.hasFluid() &&
                 material.getFluid() instanceof GTFluid gtFluid) {
             final var texturePath = IClientFluidTypeExtensions.of(gtFluid.getFluidType()).getStillTexture();
-            try {
-                final var resource = Minecraft.getInstance().getResourceManager()
-                        .getResourceOrThrow(texturePath.withSuffix(".png").withPrefix("textures/"));
-                NativeImage image;
-                try (final var stream = resource.open()) {
-                    image = NativeImage.read(stream);
-                }
-                var red = BigInteger.ZERO;
-                var green = BigInteger.ZERO;
-                var blue = BigInteger.ZERO;
+            try (final var stream = resourceManager.open(texturePath.withSuffix(".png").withPrefix("textures/"));
+                    final var image = NativeImage.read(stream)) {
+                long red = 0, green = 0, blue = 0;
                 for (final var pixel : image.getPixelsRGBA()) {
-                    red = red.add(BigInteger.valueOf(FastColor.ABGR32.red(pixel)));
-                    green = green.add(BigInteger.valueOf(FastColor.ABGR32.green(pixel)));
-                    blue = blue.add(BigInteger.valueOf(FastColor.ABGR32.blue(pixel)));
+                    red += FastColor.ABGR32.red(pixel);
+                    green += FastColor.ABGR32.green(pixel);
+                    blue += FastColor.ABGR32.blue(pixel);
                 }
-                final var size = BigInteger.valueOf((long) image.getWidth() * image.getHeight());
-                return FastColor.ARGB32.color(0xff, red.divide(size).intValue(), green.divide(size).intValue(),
-                        blue.divide(size).intValue());
+                final var size = (long) image.getWidth() * image.getHeight();
+                return FastColor.ARGB32.color(0xff, (int) (red / size), (int) (green / size), (int) (blue / size));
             } catch (IOException ignored) {
 
             }
         }
-        if (material.getMaterialSecondaryARGB() != 0xffffffff) {
-            final int primary = material.getMaterialARGB(), secondary = material.getMaterialSecondaryARGB();
-            return brightness(primary) > brightness(secondary) ? primary : secondary;
-        }
-        return material.getMaterialARGB();
+        return quickColorForMaterial(material);
+    }
+
+    /**
+     * Works out the color of every registered material, in parallel. Slow, as fluid textures have to be read; meant to
+     * run off the render thread while resources reload, with the result handed to {@link #publishMaterialColors}.
+     */
+    public static Reference2IntMap<Material> computeMaterialColors(ResourceManager resourceManager) {
+        final List<Material> materials = List.copyOf(GTCEuAPI.materialManager.getRegisteredMaterials());
+        final var colors = new int[materials.size()];
+        IntStream.range(0, colors.length).parallel()
+                .forEach(i -> colors[i] = doGetColorForMaterial(materials.get(i), resourceManager));
+        final Reference2IntMap<Material> result = new Reference2IntOpenHashMap<>(colors.length);
+        for (int i = 0; i < colors.length; i++) result.put(materials.get(i), colors[i]);
+        return Reference2IntMaps.unmodifiable(result);
     }
 
+    public static void publishMaterialColors(Reference2IntMap<Material> colors) {
+        materialColors = colors;
+        invalidateColorCache();
+    }
+
+    /**
+     * The material's color before lightening. Safe to call from any thread; materials that weren't around at the last
+     * reload get their plain material color.
+     */
     public static int getColorForMaterial(Material material) {
-        if (!COLOR_CACHE.containsKey(material)) {
-            COLOR_CACHE.put(material, doGetColorForMaterial(material));
-        }
-        return COLOR_CACHE.getInt(material);
+        final var colors = materialColors;
+        return colors.containsKey(material) ? colors.getInt(material) : quickColorForMaterial(material);
     }
 
-    public static int lightenColor(int color) {
-        final var arr = new float[3];
-        Color.RGBtoHSB(FastColor.ARGB32.red(color), FastColor.ARGB32.green(color), FastColor.ARGB32.blue(color), arr);
-        arr[2] = Math.max(arr[2], MolDrawConfig.INSTANCE.color.minimumBrightness);
-        return Color.HSBtoRGB(arr[0], arr[1], arr[2]);
+    public static synchronized int lightenColor(int color) {
+        checkResolved();
+        if (!LIGHTENED.containsKey(color)) {
+            final var arr = new float[3];
+            Color.RGBtoHSB(FastColor.ARGB32.red(color), FastColor.ARGB32.green(color), FastColor.ARGB32.blue(color),
+                    arr);
+            arr[2] = Math.max(arr[2], MolDrawConfig.INSTANCE.color.minimumBrightness);
+            LIGHTENED.put(color, Color.HSBtoRGB(arr[0], arr[1], arr[2]));
+        }
+        return LIGHTENED.get(color);
     }
 
-    public static int colorForMaterial(Material material) {
-        return lightenColor(getColorForMaterial(material));
+    public static synchronized int colorForMaterial(Material material) {
+        checkResolved();
+        if (!MATERIAL_COLORS.containsKey(material)) {
+            MATERIAL_COLORS.put(material, lightenColor(getColorForMaterial(material)));
+        }
+        return MATERIAL_COLORS.getInt(material);
     }
 
     public static int getColorForElement(Element element) {
-        final var defaultColor = configColor(null);
+        final var defaultColor = defaultColor();
         if (MolDrawConfig.INSTANCE.color.useMaterialColors && !element.material.isNull())
             return colorForMaterial(element.material);
         else if (element.color instanceof Element.Color.None) return defaultColor;
@@ -114,17 +179,20 @@ public class MoleculeColorize {
         return defaultColor;
     }
 
-    public static int colorForElement(Element element) {
-        return lightenColor(getColorForElement(element));
+    public static synchronized int colorForElement(Element element) {
+        checkResolved();
+        if (!ELEMENT_COLORS.containsKey(element)) {
+            ELEMENT_COLORS.put(element, lightenColor(getColorForElement(element)));
+        }
+        return ELEMENT_COLORS.getInt(element);
     }
 
     public static Component coloredFormula(MaterialStack stack, boolean topLevel) {
         if (stack.material().isElement()) {
-            final var element = Element.forMaterial(stack.material());
-            return Component.literal(stack.toString()).withStyle(Style.EMPTY.withColor(element
-                    .map(MoleculeColorize::colorForElement)
-                    .orElse(MolDrawConfig.INSTANCE.color.colors ? colorForMaterial(stack.material()) :
-                            FALLBACK_COLOR)));
+            final var element = Element.byMaterial(stack.material());
+            return Component.literal(stack.toString()).withStyle(Style.EMPTY.withColor(Objects.nonNull(element) ?
+                    colorForElement(element) :
+                    MolDrawConfig.INSTANCE.color.colors ? colorForMaterial(stack.material()) : FALLBACK_COLOR));
         }
         final var components = stack.material().getMaterialComponents();
         if (Objects.isNull(components) || components.isEmpty()) return Component.literal(stack.toString());
@@ -139,4 +207,26 @@ public class MoleculeColorize {
         if (stack.amount() > 1) countedText.append(FormattingUtil.toSmallDownNumbers(Long.toString(stack.amount())));
         return countedText;
     }
+
+    private static synchronized ColoredFormula cachedColoredFormula(Material material) {
+        checkResolved();
+        var formula = FORMULA_CACHE.get(material);
+        if (Objects.isNull(formula)) {
+            final var component = coloredFormula(new MaterialStack(material, 1), true);
+            formula = new ColoredFormula(component, component.getVisualOrderText());
+            FORMULA_CACHE.put(material, formula);
+        }
+        return formula;
+    }
+
+    /**
+     * The colored formula of one unit of {@code material}, cached until colors change. Don't modify the result.
+     */
+    public static Component coloredFormula(Material material) {
+        return cachedColoredFormula(material).component;
+    }
+
+    public static FormattedCharSequence coloredFormulaText(Material material) {
+        return cachedColoredFormula(material).text;
+    }
 }
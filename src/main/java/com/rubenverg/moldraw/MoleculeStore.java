@@ -0,0 +1,157 @@
+package com.rubenverg.moldraw;
+
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+
+import net.minecraft.Util;
+
+import com.google.common.collect.MapMaker;
+import com.rubenverg.moldraw.molecule.Molecule;
+import com.rubenverg.moldraw.molecule.PackedMolecule;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The molecules of the current {@link MolDrawRegistry} in their usable form. In eager mode every molecule is parsed
+ * on reload but kept as a {@link PackedMolecule}; in lazy mode the reload only indexes where each molecule lives.
+ * Either way, a molecule is unpacked or parsed in the background the first time it's asked for. Molecules in their
+ * usable form are only kept in a cache bounded by {@link MolDrawConfig.PerformanceConfig#moleculeCacheSize}, so heap
+ * follows what is actually looked at rather than everything that ships; one pushed out of it but still in use
+ * elsewhere is handed out again rather than loaded a second time, so caches keyed on it keep working. The cache follows
+ * the registry's generation, so a reload empties it on next use.
+ */
+public class MoleculeStore {
+
+    // guarded by itself, along with cacheGeneration
+    private static final LinkedHashMap<Material, Molecule> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Material, Molecule> eldest) {
+            return size() > MolDrawConfig.INSTANCE.performance.moleculeCacheSize;
+        }
+    };
+    // every molecule handed out that is still reachable, whether or not it is still in the cache
+    private static final Map<Material, Molecule> LIVE = new MapMaker().weakValues().makeMap();
+    private static final Map<Material, CompletableFuture<Molecule>> PENDING = new ConcurrentHashMap<>();
+    private static final Set<Material> FAILED = ConcurrentHashMap.newKeySet();
+    // the registry generation the caches, pending loads and failures belong to
+    private static int cacheGeneration = -1;
+
+    /** Drops everything from registries older than this one; returns whether it is still the current one. */
+    private static boolean checkGeneration(MolDrawRegistry registry) {
+        synchronized (CACHE) {
+            if (cacheGeneration < registry.generation()) {
+                CACHE.clear();
+                LIVE.clear();
+                PENDING.clear();
+                FAILED.clear();
+                cacheGeneration = registry.generation();
+            }
+            return cacheGeneration == registry.generation();
+        }
+    }
+
+    /** Whether there is a molecule for this material, without loading it. */
+    public static boolean has(Material material) {
+        final var registry = MolDrawRegistry.current();
+        checkGeneration(registry);
+        return registry.hasMolecule(material) && !FAILED.contains(material);
+    }
+
+    /**
+     * Gets the molecule for a material, waiting at most
+     * {@link MolDrawConfig.PerformanceConfig#moleculeLoadMillis} for it to be loaded if it isn't yet. Returns
+     * {@code null} if it is still loading after that, in which case it will be ready on a later call.
+     */
+    public static @Nullable Molecule get(Material material) {
+        final var registry = MolDrawRegistry.current();
+        synchronized (CACHE) {
+            checkGeneration(registry);
+            final var cached = CACHE.get(material);
+            if (Objects.nonNull(cached)) return cached;
+        }
+        final var future = prefetch(registry, material);
+        if (Objects.isNull(future)) return null;
+        try {
+            return future.get(MolDrawConfig.INSTANCE.performance.moleculeLoadMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Gets the molecule for a material, waiting for it to be loaded as long as it takes; for background threads. Unless
+     * {@code evict} is set, returns {@code null} rather than push another molecule out of a full cache.
+     */
+    public static @Nullable Molecule load(Material material, boolean evict) {
+        final var registry = MolDrawRegistry.current();
+        synchronized (CACHE) {
+            checkGeneration(registry);
+            final var cached = CACHE.get(material);
+            if (Objects.nonNull(cached)) return cached;
+            if (!evict && CACHE.size() >= MolDrawConfig.INSTANCE.performance.moleculeCacheSize) return null;
+        }
+        final var future = prefetch(registry, material);
+        return Objects.isNull(future) ? null : future.join();
+    }
+
+    /**
+     * Starts unpacking or parsing the molecule for a material in the background, if it isn't loaded or loading
+     * already.
+     *
+     * @return the pending load, or {@code null} if there is nothing to load
+     */
+    public static @Nullable CompletableFuture<Molecule> prefetch(Material material) {
+        return prefetch(MolDrawRegistry.current(), material);
+    }
+
+    private static @Nullable CompletableFuture<Molecule> prefetch(MolDrawRegistry registry, Material material) {
+        if (!checkGeneration(registry)) return null;
+        final var packed = registry.molecules().get(material);
+        final var source = registry.lazyMolecules().get(material);
+        if (Objects.isNull(packed) && Objects.isNull(source) || FAILED.contains(material)) return null;
+        var future = PENDING.get(material);
+        if (Objects.nonNull(future)) return future;
+        synchronized (CACHE) {
+            var cached = CACHE.get(material);
+            if (Objects.isNull(cached)) {
+                cached = LIVE.get(material);
+                if (Objects.nonNull(cached)) CACHE.put(material, cached);
+            }
+            if (Objects.nonNull(cached)) return CompletableFuture.completedFuture(cached);
+        }
+        final var created = new CompletableFuture<Molecule>();
+        future = PENDING.putIfAbsent(material, created);
+        if (Objects.nonNull(future)) return future;
+        Util.backgroundExecutor().execute(() -> {
+            Molecule molecule = null;
+            try {
+                molecule = Objects.nonNull(packed) ? packed.unpack() : source.load();
+                // unreadable until the reload underway is done, which replaces the registry; not a failure
+                if (Objects.nonNull(molecule)) {
+                    molecule.compiled();
+                    synchronized (CACHE) {
+                        if (checkGeneration(registry)) {
+                            CACHE.put(material, molecule);
+                            LIVE.put(material, molecule);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                MolDraw.LOGGER.error("Failed to load {}", Objects.nonNull(packed) ? material.getResourceLocation() :
+                        source.id(), e);
+                synchronized (CACHE) {
+                    if (checkGeneration(registry)) FAILED.add(material);
+                }
+            } finally {
+                PENDING.remove(material, created);
+                created.complete(molecule);
+            }
+        });
+        return created;
+    }
+}
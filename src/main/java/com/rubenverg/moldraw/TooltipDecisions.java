@@ -0,0 +1,124 @@
+package com.rubenverg.moldraw;
+
+import com.gregtechceu.gtceu.api.data.chemical.ChemicalHelper;
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.FormattedText;
+import net.minecraft.util.FormattedCharSequence;
+import net.minecraft.world.inventory.tooltip.TooltipComponent;
+import net.minecraft.world.item.BucketItem;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.level.material.Fluid;
+
+import com.mojang.datafixers.util.Either;
+import com.rubenverg.moldraw.molecule.Molecule;
+import org.jetbrains.annotations.Nullable;
+import oshi.util.tuples.Pair;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What MolDraw adds to the tooltip of an item or fluid, worked out once per item or fluid and kept until the next
+ * {@link MolDrawConfig#generation()}, so tooltip events don't go through {@link ChemicalHelper} and the molecule and
+ * alloy tables every frame.
+ */
+public class TooltipDecisions {
+
+    /**
+     * @param hasMolecule        whether there is a molecule to draw; it is only looked up when drawn, as it may be
+     *                           evicted from {@link MoleculeStore} and reloaded
+     * @param alloy              the alloy components to draw, if any
+     * @param coloredFormula     the colored formula line to replace the plain one with, if it can be colored
+     * @param coloredFormulaText the same, as text ready to draw
+     * @param formula            the plain formula line the tooltip is expected to contain
+     */
+    public record Decision(Material material, boolean hasMolecule, @Nullable List<Pair<Material, Long>> alloy,
+                           @Nullable Component coloredFormula, @Nullable FormattedCharSequence coloredFormulaText,
+                           String formula) {
+
+        /** The molecule to draw, or {@code null} if there is none or it is still loading. */
+        public @Nullable Molecule molecule() {
+            return hasMolecule ? MolDraw.getMolecule(material) : null;
+        }
+
+        public boolean isFormula(FormattedText text) {
+            final var pos = new int[] { 0 };
+            final var stopped = text.visit(part -> {
+                if (!formula.startsWith(part, pos[0])) return FormattedText.STOP_ITERATION;
+                pos[0] += part.length();
+                return Optional.empty();
+            });
+            return stopped.isEmpty() && pos[0] == formula.length();
+        }
+
+        public boolean isFormula(FormattedCharSequence text) {
+            final var pos = new int[] { 0 };
+            final var matches = text.accept((_index, _style, codepoint) -> {
+                if (pos[0] >= formula.length() || formula.codePointAt(pos[0]) != codepoint) return false;
+                pos[0] += Character.charCount(codepoint);
+                return true;
+            });
+            return matches && pos[0] == formula.length();
+        }
+
+        public OptionalInt lastFormulaLine(List<Either<FormattedText, TooltipComponent>> tooltipElements) {
+            for (int i = tooltipElements.size() - 1; i >= 0; i--) {
+                if (tooltipElements.get(i).map(this::isFormula, _component -> false)) return OptionalInt.of(i);
+            }
+            return OptionalInt.empty();
+        }
+    }
+
+    // decisions by item or fluid; tooltips are built from JEI and EMI as well as the game, not necessarily on the
+    // render thread, so a new generation gets a new map rather than clearing one another thread may be using
+    private record Cache(int generation, Map<Object, Optional<Decision>> decisions) {}
+
+    private static volatile Cache cache = new Cache(-1, new ConcurrentHashMap<>());
+
+    private static Map<Object, Optional<Decision>> decisions() {
+        final var current = cache;
+        if (current.generation == MolDrawConfig.generation()) return current.decisions;
+        final var fresh = new Cache(MolDrawConfig.generation(), new ConcurrentHashMap<>());
+        cache = fresh;
+        return fresh.decisions;
+    }
+
+    private static Optional<Decision> decide(Material material) {
+        if (material.isNull()) return Optional.empty();
+        final var hasMolecule = MoleculeStore.has(material);
+        final var alloy = MolDraw.getAlloy(material);
+        final var colorable = Objects.nonNull(material.getMaterialComponents()) &&
+                !material.getMaterialComponents().isEmpty() || material.isElement();
+        if (!hasMolecule && Objects.isNull(alloy) && !colorable) return Optional.empty();
+        if (hasMolecule) MoleculeStore.prefetch(material);
+        return Optional.of(new Decision(material, hasMolecule, alloy,
+                colorable ? MoleculeColorize.coloredFormula(material) : null,
+                colorable ? MoleculeColorize.coloredFormulaText(material) : null, material.getChemicalFormula()));
+    }
+
+    public static @Nullable Decision forItem(Item item) {
+        final var decisions = decisions();
+        var decision = decisions.get(item);
+        if (Objects.isNull(decision)) {
+            if (item instanceof BucketItem bi) decision = decide(ChemicalHelper.getMaterial(bi.getFluid()));
+            else {
+                final var materialStack = ChemicalHelper.getMaterialEntry(item);
+                decision = materialStack.isEmpty() ? Optional.empty() : decide(materialStack.material());
+            }
+            decisions.putIfAbsent(item, decision);
+        }
+        return decision.orElse(null);
+    }
+
+    public static @Nullable Decision forFluid(Fluid fluid) {
+        final var decisions = decisions();
+        var decision = decisions.get(fluid);
+        if (Objects.isNull(decision)) {
+            decision = decide(ChemicalHelper.getMaterial(fluid));
+            decisions.putIfAbsent(fluid, decision);
+        }
+        return decision.orElse(null);
+    }
+}
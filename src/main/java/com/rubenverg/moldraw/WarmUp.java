@@ -0,0 +1,155 @@
+package com.rubenverg.moldraw;
+
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.screens.Screen;
+import net.minecraft.client.gui.screens.inventory.AbstractContainerScreen;
+import net.minecraftforge.fml.ModList;
+
+import com.rubenverg.moldraw.component.MoleculeTooltipComponent;
+import com.rubenverg.moldraw.jei.MolDrawJeiPlugin;
+import com.rubenverg.moldraw.molecule.Molecule;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Prepares molecule tooltips before they are first hovered, after every reload and whenever the ingredients on screen
+ * change. Molecules are parsed and their colors resolved on one low priority thread, throttled to
+ * {@link MolDrawConfig.PerformanceConfig#warmUpCpuPercent} of it; layouts and rasters need the font and GL, so they are
+ * made on the render thread for at most {@link MolDrawConfig.PerformanceConfig#warmUpMillisPerFrame} each frame.
+ * <p>
+ * Materials on screen go first, then the rest of the registry for as long as the molecule and raster caches have room,
+ * so warming up never pushes out anything that was actually shown. Scheduling again drops whatever the previous
+ * schedule hadn't got to.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class WarmUp {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        final var thread = new Thread(runnable, "MolDraw warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    // bumped by every schedule; older work stops at its next check
+    private static final AtomicInteger TICKET = new AtomicInteger();
+    private static final Queue<Ready> READY = new ConcurrentLinkedQueue<>();
+    private static final int POLL_TICKS = 5;
+
+    // render thread only
+    private static @Nullable List<Material> lastVisible = null;
+    private static int ticks = 0;
+
+    private record Ready(int ticket, Molecule molecule) {}
+
+    /** Warms up everything in the new registry, and what is on screen first once the next tick sees it. */
+    public static void reloaded() {
+        lastVisible = null;
+        schedule(List.of());
+    }
+
+    private static void schedule(List<Material> visible) {
+        final var ticket = TICKET.incrementAndGet();
+        READY.clear();
+        if (!MolDrawConfig.INSTANCE.performance.warmUp) return;
+        final var registry = MolDrawRegistry.current();
+        EXECUTOR.execute(() -> prepare(ticket, registry, visible));
+    }
+
+    private static void prepare(int ticket, MolDrawRegistry registry, List<Material> visible) {
+        final Set<Material> materials = new LinkedHashSet<>(visible);
+        final var visibleCount = materials.size();
+        materials.addAll(registry.byId().values());
+        var index = 0;
+        for (final var material : materials) {
+            if (TICKET.get() != ticket || MolDrawRegistry.current() != registry) return;
+            final var start = System.nanoTime();
+            if (registry.hasMolecule(material)) {
+                final var molecule = MoleculeStore.load(material, index < visibleCount);
+                if (Objects.nonNull(molecule)) {
+                    warmColors(molecule);
+                    READY.add(new Ready(ticket, molecule));
+                }
+            }
+            if (Objects.nonNull(material.getMaterialComponents()) && !material.getMaterialComponents().isEmpty() ||
+                    material.isElement())
+                MoleculeColorize.coloredFormulaText(material);
+            index++;
+            final var percent = MolDrawConfig.INSTANCE.performance.warmUpCpuPercent;
+            LockSupport.parkNanos((System.nanoTime() - start) * (100 - percent) / percent);
+        }
+    }
+
+    private static void warmColors(Molecule molecule) {
+        final var compiled = molecule.compiled();
+        for (int slot = 0; slot < compiled.atomCount(); slot++) {
+            final var atom = compiled.atomAt(slot);
+            MoleculeColorize.colorForElement(atom.element().element());
+            Stream.of(atom.above(), atom.right(), atom.below(), atom.left()).flatMap(Optional::stream)
+                    .forEach(counted -> MoleculeColorize.colorForElement(counted.element()));
+        }
+    }
+
+    /** Lays out and rasterizes prepared molecules until this frame's budget runs out. */
+    public static void renderTick() {
+        if (READY.isEmpty()) return;
+        final var font = Minecraft.getInstance().font;
+        final var deadline = System.nanoTime() + MolDrawConfig.INSTANCE.performance.warmUpMillisPerFrame * 1_000_000L;
+        while (System.nanoTime() < deadline) {
+            final var ready = READY.poll();
+            if (Objects.isNull(ready)) return;
+            if (ready.ticket == TICKET.get())
+                MoleculeTooltipComponent.ClientMoleculeTooltipComponent.warm(ready.molecule, font);
+        }
+    }
+
+    /** Reschedules when the ingredients on screen change, e.g. on opening a screen or turning a JEI page. */
+    public static void clientTick() {
+        if (++ticks % POLL_TICKS != 0) return;
+        final var screen = Minecraft.getInstance().screen;
+        if (Objects.isNull(screen)) return;
+        final var visible = visibleMaterials(screen);
+        if (visible.equals(lastVisible)) return;
+        lastVisible = visible;
+        schedule(visible);
+    }
+
+    /**
+     * Materials in container slots and in JEI's ingredient list. JEI's API doesn't expose the slots of the recipe
+     * layouts it shows, and EMI's API has no way to ask which page of its index or search sidebar is on screen, only
+     * for the whole index; so what is in an open JEI recipe view or in EMI's panels isn't counted. It is warmed up
+     * along with the rest of the registry, or prefetched when hovered.
+     */
+    private static List<Material> visibleMaterials(Screen screen) {
+        final Set<Material> materials = new LinkedHashSet<>();
+        if (screen instanceof AbstractContainerScreen<?> containerScreen) {
+            for (final var slot : containerScreen.getMenu().slots) {
+                final var stack = slot.getItem();
+                if (!stack.isEmpty()) addIfDrawn(TooltipDecisions.forItem(stack.getItem()), materials);
+            }
+        }
+        if (ModList.get().isLoaded("jei")) {
+            for (final var stack : MolDrawJeiPlugin.visibleItems())
+                addIfDrawn(TooltipDecisions.forItem(stack.getItem()), materials);
+            for (final var stack : MolDrawJeiPlugin.visibleFluids())
+                addIfDrawn(TooltipDecisions.forFluid(stack.getFluid()), materials);
+        }
+        return List.copyOf(materials);
+    }
+
+    private static void addIfDrawn(@Nullable TooltipDecisions.Decision decision, Set<Material> into) {
+        if (Objects.nonNull(decision) && decision.hasMolecule()) into.add(decision.material());
+    }
+}
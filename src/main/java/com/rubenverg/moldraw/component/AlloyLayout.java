@@ -0,0 +1,189 @@
+package com.rubenverg.moldraw.component;
+
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.network.chat.Component;
+import net.minecraft.util.FormattedCharSequence;
+
+import com.rubenverg.moldraw.MolDrawConfig;
+import com.rubenverg.moldraw.MoleculeColorize;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+import oshi.util.tuples.Pair;
+
+import java.util.*;
+import java.util.function.IntBinaryOperator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Immutable display list for an alloy tooltip: the slices of the pie chart, the text of every legend line, where it
+ * goes and the leader line joining it to its slice, and the size of the tooltip. All coordinates are relative to the
+ * center of the pie chart.
+ * <p>
+ * Layouts are memoized per component list and {@link MolDrawConfig#generation()}. Component lists come from the
+ * registry and are shared for a whole generation, so they are keyed by identity. Legend placement depends on text
+ * widths, so the cache is also dropped when asked with another font or when the forced Unicode font is toggled, which
+ * changes widths without a resource reload.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class AlloyLayout {
+
+    public static final int BASE_WIDTH = 200;
+
+    private static final Map<List<Pair<Material, Long>>, AlloyLayout> CACHE = new Reference2ObjectOpenHashMap<>();
+    private static int cacheGeneration = -1;
+    private static @Nullable Font cacheFont = null;
+    private static boolean cacheUnicode = false;
+
+    /**
+     * A legend line: its text at {@code (textX, textY)}, and a leader line from {@code (sliceX, sliceY)} on its slice
+     * down or up to {@code lineY}, then across to {@code endX} next to the text.
+     */
+    public record Entry(FormattedCharSequence text, int textX, int textY, int sliceX, int sliceY, int lineY,
+                        int endX) {}
+
+    private final int radius, baseHeight;
+    private final int addTop, addBottom, addLeft, addRight;
+    private final double[] stops;
+    private final int[] stopColors;
+    private final List<Entry> entries;
+
+    private AlloyLayout(int radius, int baseHeight, int addTop, int addBottom, int addLeft, int addRight,
+                        double[] stops, int[] stopColors, List<Entry> entries) {
+        this.radius = radius;
+        this.baseHeight = baseHeight;
+        this.addTop = addTop;
+        this.addBottom = addBottom;
+        this.addLeft = addLeft;
+        this.addRight = addRight;
+        this.stops = stops;
+        this.stopColors = stopColors;
+        this.entries = entries;
+    }
+
+    public int radius() {
+        return radius;
+    }
+
+    public int width() {
+        return BASE_WIDTH + addLeft + addRight;
+    }
+
+    public int height() {
+        return baseHeight + addTop + addBottom;
+    }
+
+    /** Where the center of the pie chart is, from the tooltip's left edge. */
+    public int centerX() {
+        return BASE_WIDTH / 2 + addLeft;
+    }
+
+    /** Where the center of the pie chart is, from the tooltip's top edge. */
+    public int centerY() {
+        return baseHeight / 2 + addTop;
+    }
+
+    public static AlloyLayout of(List<Pair<Material, Long>> components, Font font) {
+        final boolean unicode = Minecraft.getInstance().options.forceUnicodeFont().get();
+        if (cacheGeneration != MolDrawConfig.generation() || cacheFont != font || cacheUnicode != unicode) {
+            CACHE.clear();
+            cacheGeneration = MolDrawConfig.generation();
+            cacheFont = font;
+            cacheUnicode = unicode;
+        }
+        return CACHE.computeIfAbsent(components, _components -> build(components, font));
+    }
+
+    private static long maybeMultiplyByMass(Material material, long count) {
+        if (MolDrawConfig.INSTANCE.alloy.partsByMass) return count * material.getMass();
+        return count;
+    }
+
+    private static AlloyLayout build(List<Pair<Material, Long>> rawComponents, Font font) {
+        final var radius = MolDrawConfig.INSTANCE.alloy.pieChartRadius;
+        final var baseHeight = radius * 5 / 2;
+
+        final var size = rawComponents.size();
+        final var materials = new Material[size];
+        final var counts = new long[size];
+        final var begins = new long[size];
+        var total = 0L;
+        for (int i = 0; i < size; i++) {
+            materials[i] = rawComponents.get(i).getA();
+            counts[i] = maybeMultiplyByMass(materials[i], rawComponents.get(i).getB());
+            begins[i] = total;
+            total += counts[i];
+        }
+
+        final var stops = new double[size];
+        final var stopColors = new int[size];
+        for (int i = 0; i < size; i++) {
+            stops[i] = Math.PI * 2 * begins[i] / total;
+            stopColors[i] = MoleculeColorize.colorForMaterial(materials[i]);
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        int atMostY = Integer.MAX_VALUE, atLeastY = Integer.MIN_VALUE;
+        int al = 0, ar = 0;
+        for (int i = 0; i < size; i++) {
+            final var end = i + 1 < size ? begins[i + 1] : total;
+            final var center = Math.PI * (begins[i] + end) / total;
+            final var sliceX = (int) (Math.sin(center) * 0.9 * radius);
+            final var sliceY = -(int) (Math.cos(center) * 0.9 * radius);
+            final int cy = (int) (-Math.cos(center) * 0.9 * radius);
+            final var left = center > Math.PI;
+            final var ex = (left ? -1 : 1) * (radius + 10);
+            final var percentage = counts[i] * 100d / total;
+            final var percentageString = percentage < 0.1 ? "<0.1%" : "%.1f%%".formatted(percentage);
+            final var text = Component.literal(percentageString + " ")
+                    .append(MoleculeColorize.coloredFormula(materials[i]));
+            final var width = font.width(text);
+
+            final int textX, textY;
+            if (left) {
+                textY = Math.min(cy - font.lineHeight / 2, atMostY);
+                textX = ex - 5 - width;
+                atMostY = textY - font.lineHeight - 1;
+                al = Math.max(al, width);
+            } else {
+                textY = Math.max(cy - font.lineHeight / 2, atLeastY);
+                textX = ex + 5;
+                atLeastY = textY + font.lineHeight + 1;
+                ar = Math.max(ar, width);
+            }
+            entries.add(new Entry(text.getVisualOrderText(), textX, textY, sliceX, sliceY,
+                    textY + font.lineHeight / 2, ex));
+        }
+
+        return new AlloyLayout(radius, baseHeight, Math.max(0, -atMostY - baseHeight / 2),
+                Math.max(0, atLeastY - baseHeight / 2), Math.max(0, al + radius + 20 - BASE_WIDTH / 2),
+                Math.max(0, ar + radius + 20 - BASE_WIDTH / 2), stops, stopColors, List.copyOf(entries));
+    }
+
+    /** Paints the pie chart centered on {@code (xm, ym)}; it covers {@link #radius()} pixels on every side. */
+    public void paintPie(int xm, int ym, GraphicalUtils.FillRect sink) {
+        GraphicalUtils.plotPie(xm, ym, radius, stops, stopColors, sink);
+    }
+
+    /**
+     * Draws each legend line after its leader line, in turn, so later leader lines cover earlier text like they
+     * always have. The leader lines go through {@code batch}, along with anything already in it.
+     */
+    public void drawLegend(Font font, int xm, int ym, GuiGraphics guiGraphics, PixelBatch batch) {
+        final IntBinaryOperator white = (_xp, _yp) -> 0xffffffff;
+        for (final var entry : entries) {
+            final int cx = xm + entry.sliceX, cy = ym + entry.sliceY, ly = ym + entry.lineY;
+            GraphicalUtils.plotLine(cx, cy, cx, ly, GraphicalUtils::alwaysDraw, white, batch);
+            GraphicalUtils.plotLine(cx, ly, xm + entry.endX, ly, GraphicalUtils::alwaysDraw, white, batch);
+            batch.draw(guiGraphics);
+            guiGraphics.drawString(font, entry.text, xm + entry.textX, ym + entry.textY, 0xffffffff);
+        }
+        batch.draw(guiGraphics);
+    }
+}
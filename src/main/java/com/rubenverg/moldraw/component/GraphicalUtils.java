@@ -3,6 +3,7 @@ package com.rubenverg.moldraw.component;
 import net.minecraft.MethodsReturnNonnullByDefault;
 import net.minecraft.client.gui.GuiGraphics;
 
+import java.util.Arrays;
 import java.util.function.IntBinaryOperator;
 
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -17,6 +18,18 @@ public class GraphicalUtils {
         void draw(int x, int y);
     }
 
+    @FunctionalInterface
+    public interface DrawColoredPixel {
+
+        void draw(int x, int y, int color);
+    }
+
+    @FunctionalInterface
+    public interface FillRect {
+
+        void fill(int x0, int y0, int x1, int y1, int color);
+    }
+
     @FunctionalInterface
     public interface PixelPredicate {
 
@@ -72,10 +85,56 @@ public class GraphicalUtils {
         }
     }
 
+    /**
+     * Walks the same pixels as {@link #plotLine(int, int, int, int, PixelPredicate, DrawPixel)}, but only draws the
+     * steps covered by {@code spans}, packed as {@code from, to (exclusive), color} triples in increasing order, and
+     * only every {@code stride}-th step.
+     */
+    public static void plotSpans(int x0, int y0, int x1, int y1, int[] spans, int stride, DrawColoredPixel doDraw) {
+        if (spans.length == 0) return;
+        final int dx = Math.abs(x1 - x0), dy = -Math.abs(y1 - y0);
+        final int sx = x0 < x1 ? 1 : -1, sy = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+        int span = 0;
+        for (int step = 0;; step++) {
+            while (step >= spans[span + 1]) {
+                span += 3;
+                if (span >= spans.length) return;
+            }
+            if (step >= spans[span] && step % stride == 0) doDraw.draw(x0, y0, spans[span + 2]);
+            final int e2 = 2 * error;
+            if (e2 >= dy) {
+                if (x0 == x1) break;
+                error += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                if (y0 == y1) break;
+                error += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    public static void plotLine(int x0, int y0, int x1, int y1, PixelPredicate shouldDraw, IntBinaryOperator color,
+                                FillRect sink) {
+        plotLine(x0, y0, x1, y1, shouldDraw, (xp, yp) -> sink.fill(xp, yp, xp + 1, yp + 1, color.applyAsInt(xp, yp)));
+    }
+
     public static void plotLine(int x0, int y0, int x1, int y1, PixelPredicate shouldDraw, IntBinaryOperator color,
                                 GuiGraphics graphics) {
-        plotLine(x0, y0, x1, y1, shouldDraw,
-                (xp, yp) -> graphics.fill(xp, yp, xp + 1, yp + 1, color.applyAsInt(xp, yp)));
+        final var batch = new PixelBatch();
+        plotLine(x0, y0, x1, y1, shouldDraw, color, batch);
+        batch.draw(graphics);
+    }
+
+    public static void hLine(int x0, int x1, int y, int color, FillRect sink) {
+        sink.fill(Math.min(x0, x1), y, Math.max(x0, x1) + 1, y + 1, color);
+    }
+
+    public static void vLine(int x, int y0, int y1, int color, FillRect sink) {
+        // same as GuiGraphics.vLine, which leaves out both endpoints
+        sink.fill(x, Math.min(y0, y1) + 1, x + 1, Math.max(y0, y1), color);
     }
 
     public static void plotCircle(int xm, int ym, int r, PixelPredicate shouldDraw, DrawPixel doDraw) {
@@ -94,8 +153,81 @@ public class GraphicalUtils {
         }
     }
 
+    public static void plotCircle(int xm, int ym, int r, PixelPredicate shouldDraw, IntBinaryOperator color,
+                                  FillRect sink) {
+        plotCircle(xm, ym, r, shouldDraw, (xp, yp) -> sink.fill(xp, yp, xp + 1, yp + 1, color.applyAsInt(xp, yp)));
+    }
+
     public static void plotCircle(int xm, int ym, int r, PixelPredicate shouldDraw, IntBinaryOperator color,
                                   GuiGraphics graphics) {
-        plotCircle(xm, ym, r, shouldDraw, (xp, yp) -> graphics.fill(xp, yp, xp + 1, yp + 1, color.applyAsInt(xp, yp)));
+        final var batch = new PixelBatch();
+        plotCircle(xm, ym, r, shouldDraw, color, batch);
+        batch.draw(graphics);
+    }
+
+    /**
+     * Fills the same pixels as {@link #plotCircle(int, int, int, PixelPredicate, DrawPixel)} as a pie chart, with one
+     * span per slice per row. Slice {@code i} starts {@code stops[i]} radians clockwise from the top, with
+     * {@code stops[0] == 0}, and is filled with {@code colors[i]}.
+     * <p>
+     * Where a slice ends on a row comes from its stop angle, then gets checked against the angle of the pixels on
+     * either side of it. Each pixel ends up in the same slice as looking up its own angle would put it in, for a
+     * handful of {@code atan2} calls per row rather than one per pixel.
+     */
+    public static void plotPie(int xm, int ym, int r, double[] stops, int[] colors, FillRect sink) {
+        // half widths of the rows plotCircle draws, by distance from the center, -1 where it draws none
+        final var halfWidths = new int[r + 1];
+        Arrays.fill(halfWidths, -1);
+        int x0 = 0, y0 = r, d = 3 - 2 * r;
+        while (y0 >= x0) {
+            halfWidths[x0] = Math.max(halfWidths[x0], y0);
+            if (d < 0) d += 4 * x0++ + 6;
+            else {
+                if (x0 != y0) halfWidths[y0] = Math.max(halfWidths[y0], x0);
+                d += 4 * (x0++ - y0--) + 10;
+            }
+        }
+        // the angle only goes up left to right of the top center, and only down across the bottom rows
+        for (int ry = -r; ry <= r; ry++) {
+            final var w = halfWidths[Math.abs(ry)];
+            if (w < 0) continue;
+            if (ry < 0) {
+                pieRun(xm, ym, -w, -1, ry, true, stops, colors, sink);
+                pieRun(xm, ym, 0, w, ry, true, stops, colors, sink);
+            } else if (ry > 0) pieRun(xm, ym, -w, w, ry, false, stops, colors, sink);
+            else {
+                pieRun(xm, ym, -w, -1, ry, true, stops, colors, sink);
+                pieRun(xm, ym, 0, 0, ry, true, stops, colors, sink);
+                pieRun(xm, ym, 1, w, ry, true, stops, colors, sink);
+            }
+        }
+    }
+
+    private static int pieSlice(int rx, int ry, double[] stops) {
+        final double ng = Math.atan2(rx, -ry);
+        final double angle = ng < 0 ? ng + 2 * Math.PI : ng;
+        for (int si = 1; si <= stops.length; si++) {
+            if (angle <= stops[si % stops.length]) return si - 1;
+        }
+        return stops.length - 1;
+    }
+
+    private static void pieRun(int xm, int ym, int a, int b, int ry, boolean increasing, double[] stops, int[] colors,
+                               FillRect sink) {
+        if (a > b) return;
+        var x = a;
+        var slice = pieSlice(a, ry, stops);
+        final var last = pieSlice(b, ry, stops);
+        while (slice != last) {
+            // where the angle crosses the stop between this slice and the next one, then settled pixel by pixel
+            final var stop = increasing ? stops[slice + 1] : stops[slice];
+            var end = (int) Math.max(x, Math.min(b, Math.floor(-ry * Math.tan(stop))));
+            while (end > x && pieSlice(end, ry, stops) != slice) end--;
+            while (end < b && pieSlice(end + 1, ry, stops) == slice) end++;
+            sink.fill(xm + x, ym + ry, xm + end + 1, ym + ry + 1, colors[slice]);
+            x = end + 1;
+            slice = pieSlice(x, ry, stops);
+        }
+        sink.fill(xm + x, ym + ry, xm + b + 1, ym + ry + 1, colors[slice]);
     }
 }
@@ -0,0 +1,695 @@
+package com.rubenverg.moldraw.component;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.renderer.LightTexture;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.util.Mth;
+
+import com.google.common.collect.MapMaker;
+import com.mojang.datafixers.util.Pair;
+import com.rubenverg.moldraw.MolDrawConfig;
+import com.rubenverg.moldraw.MoleculeColorize;
+import com.rubenverg.moldraw.molecule.*;
+import it.unimi.dsi.fastutil.floats.FloatOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+import org.joml.*;
+
+import java.lang.Math;
+import java.util.*;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import static com.rubenverg.moldraw.MoleculeColorize.*;
+
+/**
+ * Immutable display list for a molecule tooltip: where every label goes, every bond segment, paren box and circle
+ * point, and the size of the tooltip. All coordinates are relative to the tooltip's top left corner.
+ * <p>
+ * Layouts are memoized per molecule and {@link MolDrawConfig#generation()}. Spinning molecules are memoized per
+ * keyframe, one of {@link MolDrawConfig.MoleculeConfig#spinKeyframes} evenly spaced rotations of each spin group, in a
+ * cache that keeps the most recently drawn ones. They get a fresh layout every frame if keyframes are turned off, or if
+ * their groups spin at different speeds, as every combination of keyframes then comes up sooner or later; that layout
+ * is shared by everything that asks for it during the frame.
+ * <p>
+ * A spinning molecule is split in two: a memoized static layer with everything that doesn't move, and a layer per
+ * frame or keyframe with only the atoms in groups with a non-zero speed and the bonds touching them.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class MoleculeLayout {
+
+    public static int DEBUG_COLOR = MathUtils.chatFormattingColor(ChatFormatting.RED);
+
+    // weak, so that a molecule pushed out of MoleculeStore takes its layouts with it
+    private static final Map<CompiledMolecule, Map<Layer, MoleculeLayout>> CACHE = new MapMaker().weakKeys().makeMap();
+    // enough for every keyframe of a molecule turning at one speed, at the most keyframes there can be
+    private static final int MAX_FRAMES = 360;
+    // keyframe layers of spinning molecules, least recently drawn first
+    private static final LinkedHashMap<FrameKey, MoleculeLayout> FRAMES = new LinkedHashMap<>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FrameKey, MoleculeLayout> eldest) {
+            return size() > MAX_FRAMES;
+        }
+    };
+    // dynamic layers that aren't memoized, kept for the rest of the frame they were built for; render thread only
+    private static final Map<CompiledMolecule, MoleculeLayout> FRAME = new Reference2ObjectOpenHashMap<>();
+    private static int cacheGeneration = -1;
+    private static long frameMillis = -1;
+
+    private record FrameKey(CompiledMolecule compiled, IntList keyframes) {}
+
+    private enum Layer {
+        ALL,
+        STATIC,
+        DYNAMIC,
+    }
+
+    public record Label(String text, int x, int y, float z, int color) {}
+
+    /**
+     * A line of a bond, already clipped against nearby labels: {@code spans} holds the visible Bresenham steps as
+     * {@code from, to, color} triples, see {@link GraphicalUtils#plotSpans}.
+     */
+    public record Segment(int x0, int y0, int x1, int y1, boolean dotted, int[] spans) {}
+
+    /**
+     * Label sizes around an atom used to keep bonds from running over it; absent labels are {@code -1}.
+     */
+    public record AtomBox(int width, int above, int right, int below, int left, boolean invisible) {}
+
+    public sealed interface Shape {}
+
+    public record BondShape(int startX, int startY, int endX, int endY, @Nullable IntBinaryOperator overrideColor,
+                            List<Segment> segments)
+            implements Shape {}
+
+    public record ParenShape(int x0, int y0, int x1, int y1) implements Shape {}
+
+    public record CircleShape(int[] xs, int[] ys, @Nullable IntBinaryOperator overrideColor) implements Shape {}
+
+    private final int width, height;
+    private final boolean animated, memoized;
+    private final int defaultColor;
+    private final List<Label> labels;
+    private final List<Shape> shapes;
+    private final @Nullable MoleculeLayout staticLayer;
+    private @Nullable int[] paintBounds = null;
+
+    private MoleculeLayout(int width, int height, boolean animated, boolean memoized, int defaultColor,
+                           List<Label> labels, List<Shape> shapes, @Nullable MoleculeLayout staticLayer) {
+        this.width = width;
+        this.height = height;
+        this.animated = animated;
+        this.memoized = memoized;
+        this.defaultColor = defaultColor;
+        this.labels = labels;
+        this.shapes = shapes;
+        this.staticLayer = staticLayer;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Whether the molecule spins, so a new layout has to be picked every frame.
+     */
+    public boolean animated() {
+        return animated;
+    }
+
+    /**
+     * Whether this layout is shared between frames, and so worth rasterizing.
+     */
+    public boolean memoized() {
+        return memoized;
+    }
+
+    public List<Label> labels() {
+        return labels;
+    }
+
+    public List<Shape> shapes() {
+        return shapes;
+    }
+
+    /**
+     * The parts of a spinning molecule that don't move, drawn under this layout's shapes; {@code null} if this layout
+     * has everything.
+     */
+    public @Nullable MoleculeLayout staticLayer() {
+        return staticLayer;
+    }
+
+    /**
+     * Samples the clock for the frame about to be drawn, so that every spinning molecule on screen agrees on the time.
+     */
+    public static void beginFrame() {
+        frameMillis = System.currentTimeMillis();
+        FRAME.clear();
+    }
+
+    private static @Nullable float[] spinPhases(CompiledMolecule compiled) {
+        if (!MolDrawConfig.INSTANCE.molecule.spinMolecules || distinctSpeeds(compiled) == 0) return null;
+        final var phases = new float[compiled.spinGroupCount()];
+        final var now = frameMillis < 0 ? System.currentTimeMillis() : frameMillis;
+        for (int group = 0; group < phases.length; group++) {
+            if (compiled.spinGroup(group) == 0) continue;
+            final var freq = 1000 / (compiled.spinGroup(group) * MolDrawConfig.INSTANCE.molecule.spinSpeedMultiplier);
+            phases[group] = now % (int) freq / freq;
+        }
+        return phases;
+    }
+
+    public static MoleculeLayout of(Molecule molecule, Font font) {
+        final var compiled = molecule.compiled();
+        if (cacheGeneration != MolDrawConfig.generation()) {
+            CACHE.clear();
+            FRAMES.clear();
+            FRAME.clear();
+            cacheGeneration = MolDrawConfig.generation();
+        }
+        final var phases = spinPhases(compiled);
+        final var layers = CACHE.computeIfAbsent(compiled, _compiled -> new EnumMap<>(Layer.class));
+        if (Objects.isNull(phases))
+            return layers.computeIfAbsent(Layer.ALL, layer -> build(compiled, font, null, true, layer, null));
+
+        final var staticLayer = layers.computeIfAbsent(Layer.STATIC,
+                layer -> build(compiled, font, null, true, layer, null));
+        final var keyframes = MolDrawConfig.INSTANCE.molecule.spinKeyframes;
+        final var angles = new float[phases.length];
+        if (keyframes == 0) {
+            for (int group = 0; group < phases.length; group++) angles[group] = phases[group] * Mth.TWO_PI;
+            return frameLayer(compiled, font, angles, staticLayer);
+        }
+        final var frames = new int[phases.length];
+        for (int group = 0; group < phases.length; group++) {
+            frames[group] = Mth.floor(phases[group] * keyframes) % keyframes;
+            angles[group] = frames[group] * Mth.TWO_PI / keyframes;
+        }
+        // groups turning at different speeds go through more combinations of keyframes than are worth keeping
+        if (Math.pow(keyframes, distinctSpeeds(compiled)) > MAX_FRAMES)
+            return frameLayer(compiled, font, angles, staticLayer);
+        return FRAMES.computeIfAbsent(new FrameKey(compiled, IntList.of(frames)),
+                _key -> build(compiled, font, angles, true, Layer.DYNAMIC, staticLayer));
+    }
+
+    /** A dynamic layer only good for this frame, built once however many times the frame asks for it. */
+    private static MoleculeLayout frameLayer(CompiledMolecule compiled, Font font, float[] angles,
+                                             MoleculeLayout staticLayer) {
+        if (frameMillis < 0) return build(compiled, font, angles, false, Layer.DYNAMIC, staticLayer);
+        return FRAME.computeIfAbsent(compiled, _compiled -> build(compiled, font, angles, false, Layer.DYNAMIC,
+                staticLayer));
+    }
+
+    /** How many different speeds the groups of a molecule turn at, not counting groups that stand still. */
+    private static int distinctSpeeds(CompiledMolecule compiled) {
+        final var speeds = new FloatOpenHashSet();
+        for (int group = 0; group < compiled.spinGroupCount(); group++)
+            if (compiled.spinGroup(group) != 0) speeds.add(compiled.spinGroup(group));
+        return speeds.size();
+    }
+
+    // atoms in groups with a speed of 0 never move, so they go in the static layer
+    private static boolean spins(CompiledMolecule compiled, Atom atom) {
+        return atom.spinGroup() >= 0 && atom.spinGroup() < compiled.spinGroupCount() &&
+                compiled.spinGroup(atom.spinGroup()) != 0;
+    }
+
+    private static int labelWidth(Font font, Element.Counted counted) {
+        return counted.element().invisible ? 0 : font.width(counted.toString());
+    }
+
+    private static AtomBox box(Font font, Atom atom) {
+        return new AtomBox(labelWidth(font, atom.element()),
+                atom.above().map(c -> labelWidth(font, c)).orElse(-1),
+                atom.right().map(c -> labelWidth(font, c)).orElse(-1),
+                atom.below().map(c -> labelWidth(font, c)).orElse(-1),
+                atom.left().map(c -> labelWidth(font, c)).orElse(-1),
+                atom.isInvisible());
+    }
+
+    private static Pair<Vector2f, Vector2f> sizeOf(AtomBox box, int lineHeight) {
+        float x0 = box.width / 2f, x1 = box.width / 2f, y0 = 1, y1 = lineHeight + 1;
+        if (box.right >= 0) x1 += 1 + box.right;
+        if (box.left >= 0) x0 += 1 + box.left;
+        if (box.above >= 0) {
+            y0 += 1 + lineHeight;
+            x0 = Math.max(x0, box.above / 2f);
+            x1 = Math.max(x1, box.above / 2f);
+        }
+        if (box.below >= 0) {
+            y1 += 1 + lineHeight;
+            x0 = Math.max(x0, box.below / 2f);
+            x1 = Math.max(x1, box.below / 2f);
+        }
+        return new Pair<>(new Vector2f(x0, y0), new Vector2f(x1, y1));
+    }
+
+    private static final class Builder {
+
+        final CompiledMolecule compiled;
+        final Font font;
+        final @Nullable Matrix3f[] rotations;
+        final int lineHeight;
+        final int scale;
+        final Vector2f xyStart;
+        final float offsetX, offsetY;
+
+        Builder(CompiledMolecule compiled, Font font, @Nullable float[] angles, Vector2f xyStart, float offsetX,
+                float offsetY) {
+            this.compiled = compiled;
+            this.font = font;
+            if (Objects.isNull(angles)) this.rotations = null;
+            else {
+                this.rotations = new Matrix3f[angles.length];
+                for (int group = 0; group < angles.length; group++)
+                    rotations[group] = new Matrix3f().rotationY(angles[group]);
+            }
+            this.lineHeight = font.lineHeight;
+            this.scale = MolDrawConfig.INSTANCE.molecule.moleculeScale;
+            this.xyStart = xyStart;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+
+        Vector2f toScaled(Vector2fc xy) {
+            final var result = new Vector2f();
+            new Vector2f(xy).sub(xyStart, result);
+            result.mul(scale);
+            return new Vector2f(result.x + offsetX, -result.y + offsetY);
+        }
+
+        Vector2f project(Vector3fc xyz, int group) {
+            final var vec = new Vector3f(xyz);
+            if (Objects.nonNull(rotations) && group >= 0 && group < rotations.length) {
+                vec.sub(compiled.spinCenter(group));
+                vec.mul(rotations[group]);
+                vec.add(compiled.spinCenter(group));
+            }
+            return new Vector2f(vec.x, vec.y);
+        }
+
+        Vector2i screen(Vector3fc xyz, int group) {
+            final var scaled = toScaled(project(xyz, group));
+            return new Vector2i((int) scaled.x, (int) scaled.y);
+        }
+
+        Pair<Vector2f, Vector2f> boundsOf(int[] indices, int group) {
+            final var slots = compiled.slotsCovering(indices);
+            if (slots.length == 0) return new Pair<>(new Vector2f(), new Vector2f());
+            final var min = new Vector2f(Float.POSITIVE_INFINITY);
+            final var max = new Vector2f(Float.NEGATIVE_INFINITY);
+            for (final var slot : slots) {
+                final var atom = compiled.atomAt(slot);
+                final var t = toScaled(project(atom.position(), group));
+                final var s = sizeOf(box(font, atom), lineHeight);
+                min.min(new Vector2f(t).sub(s.getFirst()));
+                max.max(new Vector2f(t).add(s.getSecond()));
+            }
+            return new Pair<>(min, max);
+        }
+
+        ParenShape paren(Parens parens, int defaultColor, List<Label> labels) {
+            final var bounds = boundsOf(parens.atoms(), -1);
+            final int minX = (int) bounds.getFirst().x, minY = (int) bounds.getFirst().y;
+            final int maxX = (int) bounds.getSecond().x, maxY = (int) bounds.getSecond().y;
+            if (!parens.sub().isEmpty()) labels.add(new Label(parens.sub(), maxX + 7, maxY - 2, 0, defaultColor));
+            if (!parens.sup().isEmpty()) labels.add(new Label(parens.sup(), maxX + 7, minY - 4, 0, defaultColor));
+            return new ParenShape(minX - 2, minY - 1, maxX + 2, maxY + 1);
+        }
+
+        IntBinaryOperator aromanticColor(BenzeneRing ring) {
+            final var bounds = boundsOf(ring.indices(), ring.spinGroup());
+            final var minY = (int) bounds.getFirst().y;
+            final var maxY = (int) bounds.getSecond().y;
+            final float dy = maxY - minY;
+            return (xp, yp) -> {
+                final var yo = (yp - minY) / dy;
+                return MoleculeColorize.lightenColor(yo < 0.2f ? 0xff3aa740 :
+                        yo < 0.4f ? 0xffa8d47a : yo < 0.6f ? 0xffffffff : yo < 0.8f ? 0xffaaabaa : 0xff000000);
+            };
+        }
+
+        void atomLabels(Atom atom, Vector2i xy, List<Label> labels) {
+            final var width = font.width(atom.element().toString());
+            if (!atom.isInvisible()) labels.add(new Label(atom.element().toString(),
+                    xy.x + Mth.floor(-(float) width / 2) + 1, xy.y + 1, 0, colorForElement(atom.element().element())));
+            atom.right().filter(c -> !c.element().invisible).ifPresent(c -> labels.add(new Label(c.toString(),
+                    xy.x + Mth.floor((float) width / 2) + 1, xy.y + 1, 0, colorForElement(c.element()))));
+            atom.left().filter(c -> !c.element().invisible).ifPresent(c -> labels.add(new Label(c.toString(),
+                    xy.x - font.width(c.toString()) + Mth.floor(-(float) width / 2), xy.y + 1, 0,
+                    colorForElement(c.element()))));
+            atom.above().filter(c -> !c.element().invisible).ifPresent(c -> labels.add(new Label(c.toString(),
+                    xy.x + Mth.floor(-(float) font.width(c.toString()) / 2) + 1, xy.y - lineHeight + 1, 0,
+                    colorForElement(c.element()))));
+            atom.below().filter(c -> !c.element().invisible).ifPresent(c -> labels.add(new Label(c.toString(),
+                    xy.x + Mth.floor(-(float) font.width(c.toString()) / 2) + 1, xy.y + lineHeight + 1, 0,
+                    colorForElement(c.element()))));
+            if (MolDrawConfig.INSTANCE.debugMode)
+                labels.add(new Label(Integer.toString(atom.index()), xy.x - 5, xy.y - 2, 3, DEBUG_COLOR));
+        }
+
+        BondShape bond(Bond bond, Atom atomA, Atom atomB, @Nullable IntBinaryOperator overrideColor) {
+            final var start = screen(atomA.position(), atomA.spinGroup()).add(0, lineHeight / 2);
+            final var end = screen(atomB.position(), atomB.spinGroup()).add(0, lineHeight / 2);
+            final var startEnd = new Vector2f(end).sub(new Vector2f(start));
+            final float dy = startEnd.y, dx = startEnd.x, length = startEnd.length();
+            int addX = Math.round(dy / length * 2), addY = -Math.round(dx / length * 2);
+            int addHX = Math.round(dy / length), addHY = -Math.round(dx / length);
+            List<Vector2i> allTargets = new ArrayList<>();
+            GraphicalUtils.plotLine(addX * 3 / 2, addY * 3 / 2, -addX * 3 / 2, -addY * 3 / 2,
+                    GraphicalUtils::alwaysDraw,
+                    (xp, yp) -> {
+                        allTargets.add(new Vector2i(xp / 2, yp / 2));
+                        allTargets.add(new Vector2i((xp + 1) / 2, yp / 2));
+                        allTargets.add(new Vector2i(xp / 2, (yp + 1) / 2));
+                        allTargets.add(new Vector2i((xp + 1) / 2, (yp + 1) / 2));
+                    });
+            final var aboveEnd = new Vector2f(end).sub(new Vector2f(start)).perpendicular().normalize(2)
+                    .add(new Vector2f(end));
+            List<Vector2i> above = new ArrayList<>();
+            GraphicalUtils.plotLine(start.x, start.y, Math.round(aboveEnd.x), Math.round(aboveEnd.y),
+                    GraphicalUtils::alwaysDraw, (xp, yp) -> above.add(new Vector2i(xp, yp)));
+            final IntList raw = new IntArrayList();
+            final var thickness = bond.totalThickness();
+            final var starting = bond.centered() ? (thickness - 1) / 2f : (float) ((thickness - 1) / 2);
+            var done = bond.lines().length > 0 && bond.lines()[0].thick ? 1 : 0;
+            for (var i = 0; i < bond.lines().length; done += bond.lines()[i].thick ? 3 : 1, i++) {
+                final var delta = done - starting;
+                final var sX = Mth.floor(delta) * addX + (int) (Mth.frac(delta) * 2) * addHX;
+                final var sY = Mth.floor(delta) * addY + (int) (Mth.frac(delta) * 2) * addHY;
+                switch (bond.lines()[i]) {
+                    case SOLID -> raw.addElements(raw.size(),
+                            new int[] { start.x + sX, start.y + sY, end.x + sX, end.y + sY, 0 });
+                    case DOTTED -> raw.addElements(raw.size(),
+                            new int[] { start.x + sX, start.y + sY, end.x + sX, end.y + sY, 1 });
+                    case INWARD -> {
+                        for (int j = 0; j < above.size(); j += 3) {
+                            final var abovePoint = above.get(j);
+                            final var a = new Vector2f(abovePoint);
+                            final var startA = new Vector2f(a).sub(new Vector2f(start));
+                            final var b = new Vector2f(start).add(
+                                    new Vector2f(startEnd).mul(startEnd.dot(startA) / startEnd.dot(startEnd)))
+                                    .mul(2).sub(a);
+                            raw.addElements(raw.size(), new int[] { abovePoint.x + sX, abovePoint.y + sY,
+                                    Math.round(b.x) + sX, Math.round(b.y) + sY, 0 });
+                        }
+                    }
+                    case OUTWARD -> {
+                        for (final var pair : allTargets)
+                            raw.addElements(raw.size(), new int[] { start.x + sX, start.y + sY,
+                                    end.x + pair.x + sX, end.y + pair.y + sY, 0 });
+                    }
+                    case THICK -> {
+                        for (final var pair : allTargets)
+                            raw.addElements(raw.size(), new int[] { start.x + pair.x + sX, start.y + pair.y + sY,
+                                    end.x + pair.x + sX, end.y + pair.y + sY, 0 });
+                    }
+                }
+            }
+            final IntList rects = new IntArrayList();
+            if (!atomA.isInvisible() || !atomB.isInvisible()) {
+                labelRects(start.x, start.y, box(font, atomA), lineHeight, rects);
+                labelRects(end.x, end.y, box(font, atomB), lineHeight, rects);
+            }
+            final int colorA = colorForElement(atomA.element().element());
+            final int colorB = colorForElement(atomB.element().element());
+            final List<Segment> segments = new ArrayList<>();
+            for (int i = 0; i < raw.size(); i += 5) {
+                final int x0 = raw.getInt(i), y0 = raw.getInt(i + 1), x1 = raw.getInt(i + 2), y1 = raw.getInt(i + 3);
+                segments.add(new Segment(x0, y0, x1, y1, raw.getInt(i + 4) != 0,
+                        spans(x0, y0, x1, y1, rects, start, end, colorA, colorB)));
+            }
+            return new BondShape(start.x, start.y, end.x, end.y, overrideColor, List.copyOf(segments));
+        }
+
+        CircleShape circle(CircleTransformation ct, @Nullable IntBinaryOperator overrideColor) {
+            final var centroid = new Vector3f();
+            for (final var idx : ct.atoms()) centroid.add(Objects.requireNonNull(compiled.atom(idx)).position());
+            centroid.div(ct.atoms().length);
+            final var xs = new int[128];
+            final var ys = new int[128];
+            for (int part = 0; part < 128; part++) {
+                final var angle = (float) part / 64 * Mth.PI;
+                final var u = new Vector3f(Mth.cos(angle), Mth.sin(angle), 0);
+                final var p = u.mul(new Matrix3f(ct.A())).add(centroid.x, centroid.y, centroid.z);
+                final var r = screen(p, -1).add(0, lineHeight / 2);
+                xs[part] = r.x;
+                ys[part] = r.y;
+            }
+            return new CircleShape(xs, ys, overrideColor);
+        }
+    }
+
+    private static MoleculeLayout build(CompiledMolecule compiled, Font font, @Nullable float[] angles,
+                                        boolean memoized, Layer layer, @Nullable MoleculeLayout staticLayer) {
+        final var lineHeight = font.lineHeight;
+        final var min = compiled.min();
+        final var max = compiled.max();
+        final Vector2f diff = new Vector2f();
+        max.sub(min, diff);
+        diff.mul(MolDrawConfig.INSTANCE.molecule.moleculeScale);
+        diff.ceil();
+        final var xyStart = new Vector2f(min.x, max.y);
+        boolean top = false, topTop = false, botBot = false, lefLef = false, parenLef = false;
+        for (int slot = 0; slot < compiled.atomCount(); slot++) {
+            final var atom = compiled.atomAt(slot);
+            if (atom.isInvisible()) continue;
+            final var distanceFromTop = Math.abs(xyStart.y - atom.position().y);
+            final var distanceFromBot = Math.abs(min.y - atom.position().y);
+            final var distanceFromLef = Math.abs(min.x - atom.position().x);
+            top |= distanceFromTop < 0.1;
+            topTop |= distanceFromTop < 0.1 && atom.above().isPresent();
+            botBot |= distanceFromBot < 0.1 && atom.below().isPresent();
+            lefLef |= distanceFromLef < 0.1 && atom.left().isPresent();
+        }
+        for (int i = 0; i < compiled.elementCount() && !parenLef; i++) {
+            if (!(compiled.elementAt(i) instanceof Parens parens)) continue;
+            for (final var index : parens.atoms()) {
+                final var atom = compiled.atom(index);
+                if (Objects.nonNull(atom) && Math.abs(min.x - atom.position().x) <= 0.1) {
+                    parenLef = true;
+                    break;
+                }
+            }
+        }
+        final var width = (int) diff.x + 32 + (lefLef ? 12 : 0) + (parenLef ? 6 : 0);
+        final var height = (int) diff.y + 20 + (botBot ? 10 : 0) + (topTop ? 10 : 0);
+        final var builder = new Builder(compiled, font, angles, xyStart,
+                8 + (lefLef ? 12 : 0) + (parenLef ? 6 : 0),
+                topTop ? lineHeight * 3 / 2f : top ? lineHeight / 2f : 3);
+
+        final var defaultColor = defaultColor();
+        final var ringColors = new IntBinaryOperator[compiled.ringCount()];
+        if (MolDrawConfig.INSTANCE.fun.aromanticBenzene)
+            for (int ring = 0; ring < ringColors.length; ring++)
+                ringColors[ring] = builder.aromanticColor(compiled.ringAt(ring));
+
+        final List<Label> labels = new ArrayList<>();
+        final List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < compiled.elementCount(); i++) {
+            final var elem = compiled.elementAt(i);
+            final var ring = compiled.ringIndexOf(i);
+            final var overrideColor = ring < 0 ? null : ringColors[ring];
+            if (layer != Layer.ALL) {
+                final boolean moves;
+                if (elem instanceof Atom atom) moves = spins(compiled, atom);
+                else if (elem instanceof Bond bond) {
+                    final var atomA = compiled.atom(bond.a());
+                    final var atomB = compiled.atom(bond.b());
+                    moves = Objects.nonNull(atomA) && spins(compiled, atomA) ||
+                            Objects.nonNull(atomB) && spins(compiled, atomB);
+                } else moves = false;
+                if (moves != (layer == Layer.DYNAMIC)) continue;
+            }
+            if (elem instanceof Atom atom) {
+                builder.atomLabels(atom, builder.screen(atom.position(), atom.spinGroup()), labels);
+            } else if (elem instanceof Bond bond) {
+                final var atomA = compiled.atom(bond.a());
+                final var atomB = compiled.atom(bond.b());
+                if (Objects.isNull(atomA) || Objects.isNull(atomB)) continue;
+                shapes.add(builder.bond(bond, atomA, atomB, overrideColor));
+            } else if (elem instanceof Parens pp) {
+                shapes.add(builder.paren(pp, defaultColor, labels));
+            } else if (elem instanceof CircleTransformation ct) {
+                shapes.add(builder.circle(ct, overrideColor));
+            }
+        }
+        return new MoleculeLayout(width, height, layer == Layer.DYNAMIC, memoized, defaultColor,
+                List.copyOf(labels), List.copyOf(shapes), staticLayer);
+    }
+
+    /**
+     * Adds the rectangles around an atom's labels that bonds keep out of, as inclusive {@code x0, y0, x1, y1}.
+     */
+    private static void labelRects(int ax, int ay, AtomBox box, int lineHeight, IntList rects) {
+        final var near = lineHeight * 2 / 3;
+        if (!box.invisible) rect(ax, ay, box.width * 2 / 3, near, rects);
+        if (box.above >= 0) rect(ax, ay - lineHeight - 1, box.above * 2 / 3, near, rects);
+        if (box.below >= 0) rect(ax, ay + lineHeight + 1, box.below * 2 / 3, near, rects);
+        if (box.right >= 0) rect(ax + (box.width + box.right) / 2 + 1, ay, box.right * 2 / 3, near, rects);
+        if (box.left >= 0) rect(ax - (box.width + box.left) / 2 - 1, ay, box.left * 2 / 3, near, rects);
+    }
+
+    private static void rect(int cx, int cy, int halfWidth, int halfHeight, IntList rects) {
+        // pixels strictly closer to the center than the half extents
+        if (halfWidth <= 0 || halfHeight <= 0) return;
+        rects.addElements(rects.size(),
+                new int[] { cx - halfWidth + 1, cy - halfHeight + 1, cx + halfWidth - 1, cy + halfHeight - 1 });
+    }
+
+    /**
+     * Liang-Barsky clip of the segment against a rectangle grown by half a pixel, as the inclusive range of Bresenham
+     * steps that land inside it packed in a long, or -1 if it misses.
+     */
+    private static long hiddenSteps(int x0, int y0, int x1, int y1, int steps, int rx0, int ry0, int rx1, int ry1) {
+        if (steps == 0) return x0 >= rx0 && x0 <= rx1 && y0 >= ry0 && y0 <= ry1 ? 0 : -1;
+        final double dx = x1 - x0, dy = y1 - y0;
+        double t0 = 0, t1 = 1;
+        for (int edge = 0; edge < 4; edge++) {
+            final double p = switch (edge) {
+                case 0 -> -dx;
+                case 1 -> dx;
+                case 2 -> -dy;
+                default -> dy;
+            };
+            final double q = switch (edge) {
+                case 0 -> x0 - (rx0 - 0.5);
+                case 1 -> (rx1 + 0.5) - x0;
+                case 2 -> y0 - (ry0 - 0.5);
+                default -> (ry1 + 0.5) - y0;
+            };
+            if (p == 0) {
+                if (q < 0) return -1;
+            } else if (p < 0) t0 = Math.max(t0, q / p);
+            else t1 = Math.min(t1, q / p);
+        }
+        final int lo = (int) Math.ceil(t0 * steps), hi = (int) Math.floor(t1 * steps);
+        return t0 > t1 || lo > hi ? -1 : (long) lo << 32 | hi;
+    }
+
+    private static long side(int x, int y, Vector2ic a, Vector2ic b) {
+        final long dax = x - a.x(), day = y - a.y(), dbx = x - b.x(), dby = y - b.y();
+        return dax * dax + day * day - (dbx * dbx + dby * dby);
+    }
+
+    private static int[] spans(int x0, int y0, int x1, int y1, IntList rects, Vector2ic a, Vector2ic b, int colorA,
+                               int colorB) {
+        final int steps = Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0));
+        final var hidden = new long[rects.size() / 4];
+        var hiddenCount = 0;
+        for (int r = 0; r < rects.size(); r += 4) {
+            final var range = hiddenSteps(x0, y0, x1, y1, steps, rects.getInt(r), rects.getInt(r + 1),
+                    rects.getInt(r + 2), rects.getInt(r + 3));
+            if (range >= 0) hidden[hiddenCount++] = range;
+        }
+        Arrays.sort(hidden, 0, hiddenCount);
+
+        // pixels nearer to a than to b take a's color; that's a single break along the segment
+        final long f0 = side(x0, y0, a, b), f1 = side(x1, y1, a, b);
+        final int breakStep, before, after;
+        if (f0 < 0 && f1 < 0) {
+            breakStep = steps + 1;
+            before = colorA;
+            after = colorB;
+        } else if (f0 >= 0 && f1 >= 0) {
+            breakStep = 0;
+            before = colorA;
+            after = colorB;
+        } else if (f0 < 0) {
+            breakStep = (int) ((-f0 * steps + (f1 - f0) - 1) / (f1 - f0));
+            before = colorA;
+            after = colorB;
+        } else {
+            breakStep = (int) (f0 * steps / (f0 - f1)) + 1;
+            before = colorB;
+            after = colorA;
+        }
+
+        final IntList result = new IntArrayList();
+        var cursor = 0;
+        for (int i = 0; i <= hiddenCount; i++) {
+            final int from = cursor, to = i < hiddenCount ? (int) (hidden[i] >> 32) : steps + 1;
+            if (i < hiddenCount) cursor = Math.max(cursor, (int) hidden[i] + 1);
+            if (from >= to) continue;
+            if (to <= breakStep || from >= breakStep) {
+                result.addElements(result.size(), new int[] { from, to, to <= breakStep ? before : after });
+            } else {
+                result.addElements(result.size(), new int[] { from, breakStep, before, breakStep, to, after });
+            }
+        }
+        return result.toIntArray();
+    }
+
+    public void renderText(Font font, int x, int y, Matrix4f matrix, MultiBufferSource.BufferSource bufferSource) {
+        if (Objects.nonNull(staticLayer)) staticLayer.renderText(font, x, y, matrix, bufferSource);
+        for (final var label : labels) {
+            final var mat = label.z == 0 ? matrix : new Matrix4f(matrix).translate(0, 0, label.z);
+            font.drawInBatch(label.text, x + label.x, y + label.y, label.color, false, mat, bufferSource,
+                    Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
+        }
+    }
+
+    /**
+     * The box {@link #paint} fills when painting at {@code (0, 0)}, as {@code x0, y0, x1, y1} with the far edges
+     * exclusive. Paren ticks and bonds can stick out of the layout's own size, so this can be larger; it is all zeros
+     * if nothing is painted.
+     */
+    public int[] paintBounds() {
+        if (Objects.isNull(paintBounds)) {
+            final int[] bounds = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+            paint(0, 0, (x0, y0, x1, y1, color) -> {
+                if (x0 >= x1 || y0 >= y1) return;
+                bounds[0] = Math.min(bounds[0], x0);
+                bounds[1] = Math.min(bounds[1], y0);
+                bounds[2] = Math.max(bounds[2], x1);
+                bounds[3] = Math.max(bounds[3], y1);
+            });
+            paintBounds = bounds[0] > bounds[2] ? new int[4] : bounds;
+        }
+        return paintBounds;
+    }
+
+    public void paint(int x, int y, GraphicalUtils.FillRect sink) {
+        for (final var shape : shapes) {
+            if (shape instanceof BondShape bond) {
+                final var override = bond.overrideColor;
+                final GraphicalUtils.DrawColoredPixel draw = Objects.isNull(override) ?
+                        (xp, yp, color) -> sink.fill(x + xp, y + yp, x + xp + 1, y + yp + 1, color) :
+                        (xp, yp, color) -> sink.fill(x + xp, y + yp, x + xp + 1, y + yp + 1,
+                                override.applyAsInt(xp, yp));
+                for (final var segment : bond.segments)
+                    GraphicalUtils.plotSpans(segment.x0, segment.y0, segment.x1, segment.y1, segment.spans,
+                            segment.dotted ? 2 : 1, draw);
+            } else if (shape instanceof ParenShape paren) {
+                final int x0 = x + paren.x0, y0 = y + paren.y0, x1 = x + paren.x1, y1 = y + paren.y1;
+                GraphicalUtils.hLine(x0 - 2, x0 + 2, y0, defaultColor, sink);
+                GraphicalUtils.hLine(x0 - 2, x0 + 2, y1, defaultColor, sink);
+                GraphicalUtils.hLine(x1 + 2, x1 - 2, y0, defaultColor, sink);
+                GraphicalUtils.hLine(x1 + 2, x1 - 2, y1, defaultColor, sink);
+                GraphicalUtils.vLine(x0 - 2, y0, y1, defaultColor, sink);
+                GraphicalUtils.vLine(x1 + 2, y0, y1, defaultColor, sink);
+            } else if (shape instanceof CircleShape circle) {
+                for (int i = 0; i < circle.xs.length; i++) {
+                    final int xp = circle.xs[i], yp = circle.ys[i];
+                    sink.fill(x + xp, y + yp, x + xp + 1, y + yp + 1,
+                            Objects.isNull(circle.overrideColor) ? defaultColor :
+                                    circle.overrideColor.applyAsInt(xp, yp));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.rubenverg.moldraw.component;
+
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.util.FastColor;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A {@link GraphicalUtils.FillRect} that collects rectangles instead of drawing them one {@code fill} at a time. A fill
+ * of the same color that continues the previous rectangle horizontally or vertically is merged into it, so lines and
+ * circle rows end up as a handful of quads, and everything is submitted in a single draw call by {@link #draw}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class PixelBatch implements GraphicalUtils.FillRect {
+
+    // x0, y0, x1, y1, color
+    private final IntArrayList rects = new IntArrayList();
+
+    @Override
+    public void fill(int x0, int y0, int x1, int y1, int color) {
+        if (x0 > x1) {
+            final var t = x0;
+            x0 = x1;
+            x1 = t;
+        }
+        if (y0 > y1) {
+            final var t = y0;
+            y0 = y1;
+            y1 = t;
+        }
+        if (x0 == x1 || y0 == y1) return;
+        final var last = rects.size() - 5;
+        if (last >= 0 && rects.getInt(last + 4) == color) {
+            final int lx0 = rects.getInt(last), ly0 = rects.getInt(last + 1);
+            final int lx1 = rects.getInt(last + 2), ly1 = rects.getInt(last + 3);
+            if (ly0 == y0 && ly1 == y1 && (lx1 == x0 || lx0 == x1)) {
+                rects.set(last, Math.min(lx0, x0));
+                rects.set(last + 2, Math.max(lx1, x1));
+                return;
+            }
+            if (lx0 == x0 && lx1 == x1 && (ly1 == y0 || ly0 == y1)) {
+                rects.set(last + 1, Math.min(ly0, y0));
+                rects.set(last + 3, Math.max(ly1, y1));
+                return;
+            }
+        }
+        rects.addElements(rects.size(), new int[] { x0, y0, x1, y1, color });
+    }
+
+    /**
+     * Draws everything collected so far with the current pose and empties the batch.
+     */
+    public void draw(GuiGraphics guiGraphics) {
+        if (rects.isEmpty()) return;
+        final var matrix = guiGraphics.pose().last().pose();
+        RenderSystem.setShader(GameRenderer::getPositionColorShader);
+        RenderSystem.enableBlend();
+        final var buffer = Tesselator.getInstance().getBuilder();
+        buffer.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_COLOR);
+        for (int i = 0; i < rects.size(); i += 5) {
+            final int x0 = rects.getInt(i), y0 = rects.getInt(i + 1), x1 = rects.getInt(i + 2),
+                    y1 = rects.getInt(i + 3), color = rects.getInt(i + 4);
+            final int r = FastColor.ARGB32.red(color), g = FastColor.ARGB32.green(color),
+                    b = FastColor.ARGB32.blue(color), a = FastColor.ARGB32.alpha(color);
+            buffer.vertex(matrix, x0, y0, 0).color(r, g, b, a).endVertex();
+            buffer.vertex(matrix, x0, y1, 0).color(r, g, b, a).endVertex();
+            buffer.vertex(matrix, x1, y1, 0).color(r, g, b, a).endVertex();
+            buffer.vertex(matrix, x1, y0, 0).color(r, g, b, a).endVertex();
+        }
+        BufferUploader.drawWithShader(buffer.end());
+        RenderSystem.disableBlend();
+        rects.clear();
+    }
+}
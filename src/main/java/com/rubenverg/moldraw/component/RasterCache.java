@@ -0,0 +1,117 @@
+package com.rubenverg.moldraw.component;
+
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import com.rubenverg.moldraw.MolDrawConfig;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Rasterized drawings shared by all MolDraw tooltips, kept in GPU textures and evicted least recently used first once
+ * they exceed {@link MolDrawConfig.PerformanceConfig#rasterCacheMegabytes}. Only touched from the render thread.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class RasterCache {
+
+    private static final LinkedHashMap<Object, Raster> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long usedBytes = 0;
+
+    public static final class Raster {
+
+        private final DynamicTexture texture;
+        public final int width, height;
+        private final long bytes;
+
+        private Raster(DynamicTexture texture, int width, int height, long bytes) {
+            this.texture = texture;
+            this.width = width;
+            this.height = height;
+            this.bytes = bytes;
+        }
+
+        public void blit(GuiGraphics guiGraphics, int x, int y) {
+            RenderSystem.setShaderTexture(0, texture.getId());
+            RenderSystem.setShader(GameRenderer::getPositionTexShader);
+            RenderSystem.enableBlend();
+            final var matrix = guiGraphics.pose().last().pose();
+            final var buffer = Tesselator.getInstance().getBuilder();
+            buffer.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX);
+            buffer.vertex(matrix, x, y, 0).uv(0, 0).endVertex();
+            buffer.vertex(matrix, x, y + height, 0).uv(0, 1).endVertex();
+            buffer.vertex(matrix, x + width, y + height, 0).uv(1, 1).endVertex();
+            buffer.vertex(matrix, x + width, y, 0).uv(1, 0).endVertex();
+            BufferUploader.drawWithShader(buffer.end());
+            RenderSystem.disableBlend();
+        }
+    }
+
+    private static long budgetBytes() {
+        return (long) MolDrawConfig.INSTANCE.performance.rasterCacheMegabytes << 20;
+    }
+
+    private static int argbToAbgr(int color) {
+        return color & 0xff00ff00 | (color >> 16) & 0xff | (color & 0xff) << 16;
+    }
+
+    /**
+     * Returns the raster for {@code key}, painting it into a fresh {@code width}x{@code height} image on a miss, or
+     * {@code null} if it doesn't fit in the budget and should be drawn directly instead.
+     */
+    public static @Nullable Raster getOrPaint(Object key, int width, int height,
+                                              Consumer<GraphicalUtils.FillRect> painter) {
+        RenderSystem.assertOnRenderThread();
+        final var budget = budgetBytes();
+        trim(budget);
+        final var cached = CACHE.get(key);
+        if (Objects.nonNull(cached)) return cached;
+        final var bytes = (long) width * height * 4;
+        if (width <= 0 || height <= 0 || bytes > budget) return null;
+        final var image = new NativeImage(width, height, true);
+        painter.accept((x0, y0, x1, y1, color) -> {
+            final var abgr = argbToAbgr(color);
+            for (var yp = Math.max(y0, 0); yp < Math.min(y1, height); yp++)
+                for (var xp = Math.max(x0, 0); xp < Math.min(x1, width); xp++) image.setPixelRGBA(xp, yp, abgr);
+        });
+        final var raster = new Raster(new DynamicTexture(image), width, height, bytes);
+        CACHE.put(key, raster);
+        usedBytes += bytes;
+        trim(budget);
+        return raster;
+    }
+
+    /** Whether a {@code width}x{@code height} raster can be added without evicting any other. */
+    public static boolean fits(int width, int height) {
+        return width > 0 && height > 0 && usedBytes + (long) width * height * 4 <= budgetBytes();
+    }
+
+    private static void trim(long budget) {
+        final var iterator = CACHE.entrySet().iterator();
+        while (usedBytes > budget && iterator.hasNext()) {
+            final Map.Entry<Object, Raster> eldest = iterator.next();
+            iterator.remove();
+            usedBytes -= eldest.getValue().bytes;
+            eldest.getValue().texture.close();
+        }
+    }
+
+    public static void clear() {
+        RenderSystem.assertOnRenderThread();
+        trim(-1);
+    }
+}
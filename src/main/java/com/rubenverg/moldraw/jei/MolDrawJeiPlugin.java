@@ -0,0 +1,58 @@
+package com.rubenverg.moldraw.jei;
+
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.fluids.FluidStack;
+
+import com.rubenverg.moldraw.MolDraw;
+import mezz.jei.api.IModPlugin;
+import mezz.jei.api.JeiPlugin;
+import mezz.jei.api.constants.VanillaTypes;
+import mezz.jei.api.forge.ForgeTypes;
+import mezz.jei.api.runtime.IJeiRuntime;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Only used to find out which ingredients JEI is showing, so {@link com.rubenverg.moldraw.WarmUp} can prepare them
+ * first.
+ */
+@JeiPlugin
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class MolDrawJeiPlugin implements IModPlugin {
+
+    private static volatile @Nullable IJeiRuntime runtime;
+
+    @Override
+    public ResourceLocation getPluginUid() {
+        return new ResourceLocation(MolDraw.MOD_ID, "jei_plugin");
+    }
+
+    @Override
+    public void onRuntimeAvailable(IJeiRuntime jeiRuntime) {
+        runtime = jeiRuntime;
+    }
+
+    @Override
+    public void onRuntimeUnavailable() {
+        runtime = null;
+    }
+
+    public static List<ItemStack> visibleItems() {
+        final var jeiRuntime = runtime;
+        if (Objects.isNull(jeiRuntime) || !jeiRuntime.getIngredientListOverlay().isListDisplayed()) return List.of();
+        return jeiRuntime.getIngredientListOverlay().getVisibleIngredients(VanillaTypes.ITEM_STACK);
+    }
+
+    public static List<FluidStack> visibleFluids() {
+        final var jeiRuntime = runtime;
+        if (Objects.isNull(jeiRuntime) || !jeiRuntime.getIngredientListOverlay().isListDisplayed()) return List.of();
+        return jeiRuntime.getIngredientListOverlay().getVisibleIngredients(ForgeTypes.FLUID_STACK);
+    }
+}
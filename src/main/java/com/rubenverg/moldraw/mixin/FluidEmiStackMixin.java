@@ -1,8 +1,5 @@
 package com.rubenverg.moldraw.mixin;
 
-import com.gregtechceu.gtceu.api.data.chemical.ChemicalHelper;
-import com.gregtechceu.gtceu.api.data.chemical.material.Material;
-import com.gregtechceu.gtceu.api.data.chemical.material.stack.MaterialStack;
 import com.gregtechceu.gtceu.utils.GTUtil;
 
 import net.minecraft.client.gui.screens.inventory.tooltip.ClientTextTooltip;
@@ -37,30 +34,30 @@ public class FluidEmiStackMixin {
     private Fluid fluid;
 
     @Unique
-    private static String moldraw$simpleGetText(FormattedCharSequence seq) {
-        final var builder = new StringBuilder();
+    private static boolean moldraw$endsWithMilliBuckets(FormattedCharSequence seq) {
+        // the last two codepoints seen, packed
+        final var last = new long[] { -1 };
         seq.accept((_pos, _style, codepoint) -> {
-            builder.append(Character.toString(codepoint));
+            last[0] = last[0] << 32 | codepoint;
             return true;
         });
-        return builder.toString();
+        return last[0] == ((long) 'm' << 32 | 'B');
     }
 
     @Unique
     @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
-    private static void moldraw$tryColorizeFormula(List<ClientTooltipComponent> list, Material material,
-                                                   OptionalInt idx, OptionalInt quantityIdx) {
+    private static void moldraw$tryColorizeFormula(List<ClientTooltipComponent> list,
+                                                   TooltipDecisions.Decision decision, OptionalInt idx,
+                                                   OptionalInt quantityIdx) {
         if (!MolDrawConfig.INSTANCE.color.colors) return;
-        if (Objects.nonNull(material.getMaterialComponents()) && !material.getMaterialComponents().isEmpty() ||
-                material.isElement()) {
-            final var coloredFormula = MoleculeColorize.coloredFormula(new MaterialStack(material, 1), true);
+        final var coloredFormula = decision.coloredFormulaText();
+        if (Objects.isNull(coloredFormula)) return;
 
-            if (idx.isPresent())
-                list.set(idx.getAsInt(), ClientTooltipComponent.create(coloredFormula.getVisualOrderText()));
-            else
-                list.add(quantityIdx.stream().map(i -> i + 1).findFirst().orElse(1),
-                        ClientTooltipComponent.create(coloredFormula.getVisualOrderText()));
-        }
+        if (idx.isPresent())
+            list.set(idx.getAsInt(), ClientTooltipComponent.create(coloredFormula));
+        else
+            list.add(quantityIdx.stream().map(i -> i + 1).findFirst().orElse(1),
+                    ClientTooltipComponent.create(coloredFormula));
     }
 
     @Inject(method = "getTooltip",
@@ -71,18 +68,19 @@ public class FluidEmiStackMixin {
     private void moldraw$addFluidTooltip(CallbackInfoReturnable<List<ClientTooltipComponent>> cir,
                                          @Local(name = "list") List<ClientTooltipComponent> list) {
         if (!MolDrawConfig.INSTANCE.enabled) return;
-        final var material = ChemicalHelper.getMaterial(fluid);
-        if (material.isNull()) return;
+        final var decision = TooltipDecisions.forFluid(fluid);
+        if (Objects.isNull(decision)) return;
+        final var material = decision.material();
         if (Objects.isNull(material.getMaterialComponents())) return;
 
-        final var mol = MolDraw.getMolecule(material);
-        final var alloy = MolDraw.getAlloy(material);
+        final var mol = decision.molecule();
+        final var alloy = decision.alloy();
         final var idx = IntStream.range(0, list.size()).filter(i -> list.get(i) instanceof ClientTextTooltip ctt &&
-                moldraw$simpleGetText(((ClientTextTooltipMixin) ctt).getText()).equals(material.getChemicalFormula()))
+                decision.isFormula(((ClientTextTooltipMixin) ctt).getText()))
                 .reduce((a, b) -> b);
         final var quantityIdx = IntStream.range(0, list.size())
                 .filter(i -> list.get(i) instanceof ClientTextTooltip ctt &&
-                        moldraw$simpleGetText(((ClientTextTooltipMixin) ctt).getText()).endsWith("mB"))
+                        moldraw$endsWithMilliBuckets(((ClientTextTooltipMixin) ctt).getText()))
                 .findFirst();
         final var insertAt = quantityIdx.stream().map(i -> i + 1).findFirst().orElse(1);
 
@@ -101,10 +99,10 @@ public class FluidEmiStackMixin {
                 // else list.add(insertAt, ClientTooltipComponent.create(new
                 // AlloyTooltipComponent(AlloyTooltipComponent.deriveComponents(material))));
             } else {
-                moldraw$tryColorizeFormula(list, material, idx, quantityIdx);
+                moldraw$tryColorizeFormula(list, decision, idx, quantityIdx);
             }
         } else {
-            moldraw$tryColorizeFormula(list, material, idx, quantityIdx);
+            moldraw$tryColorizeFormula(list, decision, idx, quantityIdx);
 
             if (MolDrawConfig.INSTANCE.onlyShowOnShift) {
                 final int ttIndex = idx.orElse(insertAt) + 1;
@@ -1,6 +1,5 @@
 package com.rubenverg.moldraw.mixin;
 
-import com.gregtechceu.gtceu.api.data.chemical.ChemicalHelper;
 import com.gregtechceu.gtceu.utils.GTUtil;
 
 import net.minecraft.network.chat.Component;
@@ -11,6 +10,7 @@ import net.minecraftforge.fluids.FluidStack;
 import com.mojang.datafixers.util.Either;
 import com.rubenverg.moldraw.MolDraw;
 import com.rubenverg.moldraw.MolDrawConfig;
+import com.rubenverg.moldraw.TooltipDecisions;
 import com.rubenverg.moldraw.component.AlloyTooltipComponent;
 import com.rubenverg.moldraw.component.MoleculeTooltipComponent;
 import mezz.jei.api.gui.builder.ITooltipBuilder;
@@ -22,7 +22,6 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.util.Objects;
-import java.util.stream.IntStream;
 
 @Mixin(value = FluidHelper.class, priority = 1000000) // for sure more than GregTech
 public class FluidHelperMixin {
@@ -36,17 +35,13 @@ public class FluidHelperMixin {
         if (!(tooltip instanceof JeiTooltip jeiTooltip)) return;
         if (!MolDrawConfig.INSTANCE.enabled) return;
 
-        final var material = ChemicalHelper.getMaterial(ingredient.getFluid());
-        if (material.isNull()) return;
+        final var decision = TooltipDecisions.forFluid(ingredient.getFluid());
+        if (Objects.isNull(decision)) return;
 
-        final var mol = MolDraw.getMolecule(material);
-        final var alloy = MolDraw.getAlloy(material);
+        final var mol = decision.molecule();
+        final var alloy = decision.alloy();
         final var tooltipElements = ((JeiTooltipMixin) jeiTooltip).getLines();
-        final var idx = IntStream.range(0, tooltipElements.size())
-                .filter(i -> tooltipElements.get(i).left()
-                        .map(tt -> tt.getString().equals(material.getChemicalFormula()))
-                        .orElse(false))
-                .reduce((a, b) -> b);
+        final var idx = decision.lastFormulaLine(tooltipElements);
 
         if (!MolDrawConfig.INSTANCE.onlyShowOnShift || GTUtil.isShiftDown()) {
             if (!Objects.isNull(mol) && MolDrawConfig.INSTANCE.molecule.showMolecules) {
@@ -63,10 +58,10 @@ public class FluidHelperMixin {
                 // else tooltipElements.add(1, Either.right(new
                 // AlloyTooltipComponent(AlloyTooltipComponent.deriveComponents(material))));
             } else {
-                MolDraw.tryColorizeFormula(material, idx, tooltipElements);
+                MolDraw.tryColorizeFormula(decision, idx, tooltipElements);
             }
         } else {
-            MolDraw.tryColorizeFormula(material, idx, tooltipElements);
+            MolDraw.tryColorizeFormula(decision, idx, tooltipElements);
 
             if (MolDrawConfig.INSTANCE.onlyShowOnShift) {
                 final int ttIndex = idx.orElse(1) + 1;
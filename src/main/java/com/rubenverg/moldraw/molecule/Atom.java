@@ -1,10 +1,14 @@
 package com.rubenverg.moldraw.molecule;
 
-import com.google.gson.*;
-import org.joml.Vector2f;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Vector3f;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.Objects;
 import java.util.Optional;
 
 public record Atom(
@@ -50,70 +54,63 @@ public record Atom(
         return element.element().invisible;
     }
 
-    public static class Json implements JsonSerializer<Atom>, JsonDeserializer<Atom> {
+    public static class Json extends TypeAdapter<Atom> {
 
         private Json() {}
 
         public static Json INSTANCE = new Json();
 
-        @Override
-        public Atom deserialize(JsonElement jsonElement, Type type,
-                                JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            if (!jsonElement.isJsonObject()) throw new JsonParseException("Atom JSON must be an object");
-            final var obj = jsonElement.getAsJsonObject();
-            if (!obj.has("index")) throw new JsonParseException("Atom JSON must contain an index");
-            final var index = obj.get("index").getAsInt();
-            final Element.Counted element = obj.has("element") ?
-                    jsonDeserializationContext.deserialize(obj.get("element"), Element.Counted.class) :
-                    Element.INVISIBLE.one();
-            final Optional<Element.Counted> above = obj.has("above") ?
-                    Optional.of(jsonDeserializationContext.deserialize(obj.get("above"), Element.Counted.class)) :
-                    Optional.empty();
-            final Optional<Element.Counted> right = obj.has("right") ?
-                    Optional.of(jsonDeserializationContext.deserialize(obj.get("right"), Element.Counted.class)) :
-                    Optional.empty();
-            final Optional<Element.Counted> below = obj.has("below") ?
-                    Optional.of(jsonDeserializationContext.deserialize(obj.get("below"), Element.Counted.class)) :
-                    Optional.empty();
-            final Optional<Element.Counted> left = obj.has("left") ?
-                    Optional.of(jsonDeserializationContext.deserialize(obj.get("left"), Element.Counted.class)) :
-                    Optional.empty();
-            final var position = new Vector3f();
-            if (obj.has("u") && obj.has("v")) {
-                final var xy = new Vector2f();
-                xy.x = obj.get("u").getAsFloat();
-                xy.y = obj.get("v").getAsFloat();
-                xy.mul(MathUtils.UVtoXY);
-                position.set(xy, 0);
-            } else if (obj.has("x") && obj.has("y")) {
-                position.x = obj.get("x").getAsFloat();
-                position.y = obj.get("y").getAsFloat();
-                position.z = Optional.ofNullable(obj.get("z")).map(JsonElement::getAsFloat).orElse(0f);
-            } else {
+        static Atom fromFields(ElementFields fields) {
+            if (Objects.isNull(fields.index)) throw new JsonParseException("Atom JSON must contain an index");
+            final var position = ElementFields.position(fields.u, fields.v, fields.x, fields.y, fields.z);
+            if (Objects.isNull(position))
                 throw new JsonParseException("Atom JSON must contain either u and v, or x and y (and possibly z)");
-            }
-            final var spinGroup = obj.has("spin_group") ? obj.get("spin_group").getAsInt() : 0;
-            return new Atom(index, element, above, right, below, left, position, spinGroup);
+            return new Atom(fields.index,
+                    Objects.nonNull(fields.element) ? fields.element : Element.INVISIBLE.one(),
+                    Optional.ofNullable(fields.above),
+                    Optional.ofNullable(fields.right),
+                    Optional.ofNullable(fields.below),
+                    Optional.ofNullable(fields.left),
+                    position,
+                    Objects.requireNonNullElse(fields.spinGroup, 0));
+        }
+
+        @Override
+        public @Nullable Atom read(JsonReader in) throws IOException {
+            if (ElementFields.skipNull(in)) return null;
+            return fromFields(ElementFields.read(in, "Atom JSON must be an object"));
+        }
+
+        static void writeFields(JsonWriter out, Atom atom) throws IOException {
+            out.name("index").value(atom.index);
+            out.name("element");
+            Element.Counted.Json.INSTANCE.write(out, atom.element);
+            writeOptional(out, "above", atom.above);
+            writeOptional(out, "right", atom.right);
+            writeOptional(out, "below", atom.below);
+            writeOptional(out, "left", atom.left);
+            ElementFields.writeFloat(out, "x", atom.position.x);
+            ElementFields.writeFloat(out, "y", atom.position.y);
+            if (atom.position.z != 0) ElementFields.writeFloat(out, "z", atom.position.z);
+            if (atom.spinGroup != 0) out.name("spin_group").value(atom.spinGroup);
+        }
+
+        private static void writeOptional(JsonWriter out, String name,
+                                          Optional<Element.Counted> counted) throws IOException {
+            if (counted.isEmpty()) return;
+            out.name(name);
+            Element.Counted.Json.INSTANCE.write(out, counted.get());
         }
 
         @Override
-        public JsonElement serialize(Atom atom, Type type, JsonSerializationContext jsonSerializationContext) {
-            final var obj = new JsonObject();
-            obj.addProperty("index", atom.index);
-            obj.add("element", jsonSerializationContext.serialize(atom.element, Element.Counted.class));
-            atom.above.ifPresent(
-                    counted -> obj.add("above", jsonSerializationContext.serialize(counted, Element.Counted.class)));
-            atom.right.ifPresent(
-                    counted -> obj.add("right", jsonSerializationContext.serialize(counted, Element.Counted.class)));
-            atom.below.ifPresent(
-                    counted -> obj.add("below", jsonSerializationContext.serialize(counted, Element.Counted.class)));
-            atom.left.ifPresent(
-                    counted -> obj.add("left", jsonSerializationContext.serialize(counted, Element.Counted.class)));
-            obj.addProperty("x", atom.position.x);
-            obj.addProperty("y", atom.position.y);
-            if (atom.position.z != 0) obj.addProperty("z", atom.position.z);
-            if (atom.spinGroup != 0) obj.addProperty("spin_group", atom.spinGroup);
-            return obj;
+        public void write(JsonWriter out, @Nullable Atom atom) throws IOException {
+            if (Objects.isNull(atom)) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeFields(out, atom);
+            out.endObject();
         }
     }
 }
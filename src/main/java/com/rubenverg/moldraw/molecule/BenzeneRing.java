@@ -2,14 +2,18 @@ package com.rubenverg.moldraw.molecule;
 
 import net.minecraft.util.Mth;
 
-import com.google.gson.*;
+import com.google.common.collect.MapMaker;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.rubenverg.moldraw.MolDrawConfig;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Matrix2f;
-import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.*;
 
 public record BenzeneRing(
@@ -32,7 +36,7 @@ public record BenzeneRing(
 
     @Override
     public BenzeneRing replaceInOrder(int[] newIndices) {
-        return new BenzeneRing(newIndices, first, next, spinGroup, angle);
+        return new BenzeneRing(newIndices, new Vector3f(first), new Vector3f(next), spinGroup, angle);
     }
 
     @Override
@@ -41,37 +45,82 @@ public record BenzeneRing(
         next.mul(to.transformation());
     }
 
+    // expansions by ring instance (records can't hold them), checked against first and next since those are moved in
+    // place by beforeAdd and Molecule.affine
+    private static final Map<BenzeneRing, Expansion> EXPANSIONS = new MapMaker().weakKeys().makeMap();
+
+    private static final class Expansion {
+
+        private final Vector3fc first, next;
+        private final Vector3fc[] points;
+        // guarded by itself
+        private final Map<MolDrawConfig.MoleculeConfig.AromaticMode, List<MoleculeElement<?>>> children =
+                new EnumMap<>(MolDrawConfig.MoleculeConfig.AromaticMode.class);
+
+        private Expansion(BenzeneRing ring) {
+            this.first = new Vector3f(ring.first);
+            this.next = new Vector3f(ring.next);
+            this.points = new Vector3fc[ring.indices.length];
+            points[0] = first;
+            points[1] = next;
+            final var delta = new Vector3f(next).sub(first);
+            for (var idx = 2; idx < points.length; idx++) {
+                final var old = new Vector3f(delta);
+                delta.rotateAxis(Mth.TWO_PI / points.length, 0, 0, 1);
+                delta.rotateAxis(ring.angle, old.x, old.y, old.z);
+                points[idx] = new Vector3f(points[idx - 1]).add(delta);
+            }
+        }
+
+        private boolean matches(BenzeneRing ring) {
+            return first.equals(ring.first) && next.equals(ring.next);
+        }
+
+        private List<MoleculeElement<?>> children(BenzeneRing ring, MolDrawConfig.MoleculeConfig.AromaticMode mode) {
+            synchronized (children) {
+                return children.computeIfAbsent(mode, _mode -> expand(ring, mode));
+            }
+        }
+
+        private List<MoleculeElement<?>> expand(BenzeneRing ring, MolDrawConfig.MoleculeConfig.AromaticMode mode) {
+            final var indices = ring.indices;
+            final List<MoleculeElement<?>> result = new ArrayList<>();
+            for (var idx = 0; idx < indices.length; idx++) {
+                result.add(new Atom(indices[idx], Element.INVISIBLE.count(1), Optional.empty(), Optional.empty(),
+                        Optional.empty(), Optional.empty(), new Vector3f(points[idx]), ring.spinGroup));
+                result.add(new Bond(indices[idx], indices[(idx + 1) % points.length], false,
+                        switch (mode) {
+                            case DOUBLE_BONDS -> idx % 2 == 0 ? Bond.SINGLE : Bond.DOUBLE;
+                            case CIRCLE -> Bond.SINGLE;
+                        }));
+            }
+            if (mode == MolDrawConfig.MoleculeConfig.AromaticMode.CIRCLE)
+                result.add(new CircleTransformation(
+                        new Matrix2f().identity().scale(new Vector3f(next).sub(first).length() * 2 / 3), indices));
+            return List.copyOf(result);
+        }
+    }
+
+    private Expansion expansion() {
+        var expansion = EXPANSIONS.get(this);
+        if (Objects.isNull(expansion) || !expansion.matches(this)) {
+            expansion = new Expansion(this);
+            EXPANSIONS.put(this, expansion);
+        }
+        return expansion;
+    }
+
+    /**
+     * The atoms and bonds this ring stands for, under the current aromatic mode. Computed once per ring and mode and
+     * shared, so the returned elements must not be modified.
+     */
     @Override
     public Collection<MoleculeElement<?>> children() {
-        final List<MoleculeElement<?>> result = new ArrayList<>();
-        final var points = points();
-        for (var idx = 0; idx < indices.length; idx++) {
-            result.add(new Atom(indices[idx], Element.INVISIBLE.count(1), Optional.empty(), Optional.empty(),
-                    Optional.empty(), Optional.empty(), new Vector3f(points[idx]), spinGroup));
-            result.add(new Bond(indices[idx], indices[(idx + 1) % points.length], false,
-                    switch (MolDrawConfig.INSTANCE.molecule.benzeneCircle) {
-                        case DOUBLE_BONDS -> idx % 2 == 0 ? Bond.SINGLE : Bond.DOUBLE;
-                        case CIRCLE -> Bond.SINGLE;
-                    }));
-        }
-        if (MolDrawConfig.INSTANCE.molecule.benzeneCircle == MolDrawConfig.MoleculeConfig.AromaticMode.CIRCLE)
-            result.add(new CircleTransformation(
-                    new Matrix2f().identity().scale(new Vector3f(next).sub(first).length() * 2 / 3), indices));
-        return result;
+        return expansion().children(this, MolDrawConfig.INSTANCE.molecule.benzeneCircle);
     }
 
     public Vector3fc[] points() {
-        final var result = new Vector3fc[indices.length];
-        result[0] = first;
-        result[1] = next;
-        final var delta = new Vector3f(next).sub(first);
-        for (var idx = 2; idx < indices.length; idx++) {
-            final var old = new Vector3f(delta);
-            delta.rotateAxis(Mth.TWO_PI / indices.length, 0, 0, 1);
-            delta.rotateAxis(angle, old.x, old.y, old.z);
-            result[idx] = new Vector3f(result[idx - 1]).add(delta);
-        }
-        return result;
+        return expansion().points.clone();
     }
 
     public static BenzeneRing from(int firstIndex, Vector3fc first, Vector3fc next, int spinGroup, float angle) {
@@ -95,72 +144,58 @@ public record BenzeneRing(
         return BenzeneRing.from(firstIndex, new Vector3f(x0, y0, 0), new Vector3f(x1, y1, 0), spinGroup, 0);
     }
 
-    public static class Json implements JsonSerializer<BenzeneRing>, JsonDeserializer<BenzeneRing> {
+    public static class Json extends TypeAdapter<BenzeneRing> {
 
         private Json() {}
 
         public static Json INSTANCE = new Json();
 
-        @Override
-        public BenzeneRing deserialize(JsonElement jsonElement, Type type,
-                                       JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            if (!jsonElement.isJsonObject()) throw new JsonParseException("Atom JSON must be an object");
-            final var obj = jsonElement.getAsJsonObject();
+        static BenzeneRing fromFields(ElementFields fields) {
             int[] indices;
-            if (obj.has("indices"))
-                indices = obj.getAsJsonArray("indices").asList().stream().mapToInt(JsonElement::getAsInt).toArray();
-            else if (obj.has("start_index")) {
-                final var count = obj.has("count") ? obj.get("count").getAsInt() : 6;
-                indices = new int[count];
-                for (var idx = 0; idx < count; idx++) indices[idx] = obj.get("start_index").getAsInt() + idx;
+            if (Objects.nonNull(fields.indices)) indices = fields.indices;
+            else if (Objects.nonNull(fields.startIndex)) {
+                indices = new int[Objects.requireNonNullElse(fields.count, 6)];
+                for (var idx = 0; idx < indices.length; idx++) indices[idx] = fields.startIndex + idx;
             } else throw new JsonParseException("Benzene ring JSON must contain either indices or start_index");
-            final var first = new Vector3f();
-            if (obj.has("u0") && obj.has("v0")) {
-                final var xy = new Vector2f();
-                xy.x = obj.get("u0").getAsFloat();
-                xy.y = obj.get("v0").getAsFloat();
-                xy.mul(MathUtils.UVtoXY);
-                first.set(xy, 0);
-            } else if (obj.has("x0") && obj.has("y0")) {
-                first.x = obj.get("x0").getAsFloat();
-                first.y = obj.get("y0").getAsFloat();
-                first.z = Optional.ofNullable(obj.get("z0")).map(JsonElement::getAsFloat).orElse(0f);
-            } else throw new JsonParseException(
+            final var first = ElementFields.position(fields.u0, fields.v0, fields.x0, fields.y0, fields.z0);
+            if (Objects.isNull(first)) throw new JsonParseException(
                     "Benzene ring JSON must contain either u0 and v0, or x0 and y0 (and possibly z0)");
-            final var next = new Vector3f();
-            if (obj.has("u1") && obj.has("v1")) {
-                final var xy = new Vector2f();
-                xy.x = obj.get("u1").getAsFloat();
-                xy.y = obj.get("v1").getAsFloat();
-                xy.mul(MathUtils.UVtoXY);
-                next.set(xy, 0);
-            } else if (obj.has("x1") && obj.has("y1")) {
-                next.x = obj.get("x1").getAsFloat();
-                next.y = obj.get("y1").getAsFloat();
-                next.z = Optional.ofNullable(obj.get("z1")).map(JsonElement::getAsFloat).orElse(0f);
-            } else throw new JsonParseException(
+            final var next = ElementFields.position(fields.u1, fields.v1, fields.x1, fields.y1, fields.z1);
+            if (Objects.isNull(next)) throw new JsonParseException(
                     "Benzene ring JSON must contain either u1 and v1, or x1 and y1 (and possibly z1)");
-            final var spinGroup = obj.has("spin_group") ? obj.get("spin_group").getAsInt() : 0;
-            final var angle = obj.has("angle") ? obj.get("angle").getAsFloat() :
-                    obj.has("clockwise") ? obj.get("clockwise").getAsBoolean() ? Mth.PI : 0 : Mth.PI;
+            final var spinGroup = Objects.requireNonNullElse(fields.spinGroup, 0);
+            final var angle = Objects.nonNull(fields.angle) ? fields.angle :
+                    Objects.nonNull(fields.clockwise) ? fields.clockwise ? Mth.PI : 0 : Mth.PI;
             return new BenzeneRing(indices, first, next, spinGroup, angle);
         }
 
         @Override
-        public JsonElement serialize(BenzeneRing ring, Type type, JsonSerializationContext jsonSerializationContext) {
-            final var obj = new JsonObject();
-            final var indices = new JsonArray();
-            for (final var index : ring.indices) indices.add(index);
-            obj.add("indices", indices);
-            obj.addProperty("x0", ring.first.x);
-            obj.addProperty("y0", ring.first.y);
-            if (ring.first.z != 0) obj.addProperty("z0", ring.first.z);
-            obj.addProperty("x1", ring.next.x);
-            obj.addProperty("y1", ring.next.y);
-            if (ring.next.z != 0) obj.addProperty("z1", ring.next.z);
-            if (ring.spinGroup != 0) obj.addProperty("spin_group", ring.spinGroup);
-            obj.addProperty("angle", ring.angle);
-            return obj;
+        public @Nullable BenzeneRing read(JsonReader in) throws IOException {
+            if (ElementFields.skipNull(in)) return null;
+            return fromFields(ElementFields.read(in, "Atom JSON must be an object"));
+        }
+
+        static void writeFields(JsonWriter out, BenzeneRing ring) throws IOException {
+            ElementFields.writeInts(out, "indices", ring.indices);
+            ElementFields.writeFloat(out, "x0", ring.first.x);
+            ElementFields.writeFloat(out, "y0", ring.first.y);
+            if (ring.first.z != 0) ElementFields.writeFloat(out, "z0", ring.first.z);
+            ElementFields.writeFloat(out, "x1", ring.next.x);
+            ElementFields.writeFloat(out, "y1", ring.next.y);
+            if (ring.next.z != 0) ElementFields.writeFloat(out, "z1", ring.next.z);
+            if (ring.spinGroup != 0) out.name("spin_group").value(ring.spinGroup);
+            ElementFields.writeFloat(out, "angle", ring.angle);
+        }
+
+        @Override
+        public void write(JsonWriter out, @Nullable BenzeneRing ring) throws IOException {
+            if (Objects.isNull(ring)) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeFields(out, ring);
+            out.endObject();
         }
     }
 }
@@ -1,9 +1,15 @@
 package com.rubenverg.moldraw.molecule;
 
-import com.google.gson.*;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.rubenverg.moldraw.MolDraw;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Objects;
 
 public record Bond(
                    int a,
@@ -52,16 +58,16 @@ public record Bond(
             this.thick = thick;
         }
 
-        public static class Json implements JsonSerializer<Line>, JsonDeserializer<Line> {
+        public static class Json extends TypeAdapter<Line> {
 
             private Json() {}
 
             public static final Json INSTANCE = new Json();
 
             @Override
-            public Line deserialize(JsonElement jsonElement, java.lang.reflect.Type type,
-                                    JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-                final var str = jsonElement.getAsString();
+            public @Nullable Line read(JsonReader in) throws IOException {
+                if (ElementFields.skipNull(in)) return null;
+                final var str = ElementFields.readString(in);
                 for (final var value : Line.values()) {
                     if (value.jsonName.equals(str)) return value;
                 }
@@ -69,29 +75,26 @@ public record Bond(
             }
 
             @Override
-            public JsonElement serialize(Line line, java.lang.reflect.Type type2,
-                                         JsonSerializationContext jsonSerializationContext) {
-                return new JsonPrimitive(line.jsonName);
+            public void write(JsonWriter out, @Nullable Line line) throws IOException {
+                if (Objects.isNull(line)) out.nullValue();
+                else out.value(line.jsonName);
             }
         }
     }
 
-    public static class Json implements JsonSerializer<Bond>, JsonDeserializer<Bond> {
+    public static class Json extends TypeAdapter<Bond> {
 
         private Json() {}
 
         public static Json INSTANCE = new Json();
 
-        @Override
-        public Bond deserialize(JsonElement jsonElement, java.lang.reflect.Type reflectType,
-                                JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            if (!jsonElement.isJsonObject()) throw new JsonParseException("Bond JSON must be an object");
-            final var obj = jsonElement.getAsJsonObject();
-            if (!obj.has("a") || !obj.has("b")) throw new JsonParseException("Bond JSON must contain a and b");
-            final int a = obj.get("a").getAsInt(), b = obj.get("b").getAsInt();
-            if (obj.has("bond_type")) {
+        static Bond fromFields(ElementFields fields) {
+            if (Objects.isNull(fields.a) || Objects.isNull(fields.b))
+                throw new JsonParseException("Bond JSON must contain a and b");
+            final int a = fields.a, b = fields.b;
+            if (Objects.nonNull(fields.bondType)) {
                 MolDraw.LOGGER.warn("Molecule uses old bond format!");
-                return switch (obj.get("bond_type").getAsString()) {
+                return switch (fields.bondType) {
                     case "single" -> new Bond(a, b, false, SINGLE);
                     case "double" -> new Bond(a, b, false, DOUBLE);
                     case "double_centered" -> new Bond(a, b, true, DOUBLE);
@@ -104,27 +107,37 @@ public record Bond(
                     case "quadruple_centered" -> new Bond(a, b, true, Line.SOLID, Line.SOLID, Line.SOLID, Line.SOLID);
                     case "dotted" -> new Bond(a, b, true, Line.DOTTED);
                     default -> throw new JsonParseException(
-                            "Invalid bond type %s in old format.".formatted(obj.get("bond_type").getAsString()));
+                            "Invalid bond type %s in old format.".formatted(fields.bondType));
                 };
             }
-            final var centered = obj.has("centered") && obj.get("centered").getAsBoolean();
-            final var lines = obj.has("lines") ? obj.getAsJsonArray("lines").asList().stream()
-                    .map(el -> jsonDeserializationContext.<Line>deserialize(el, Line.class)).toArray(Line[]::new) :
-                    SINGLE;
-            return new Bond(a, b, centered, lines);
+            return new Bond(a, b, Boolean.TRUE.equals(fields.centered),
+                    Objects.nonNull(fields.lines) ? fields.lines : SINGLE);
         }
 
         @Override
-        public JsonElement serialize(Bond bond, java.lang.reflect.Type reflectType,
-                                     JsonSerializationContext jsonSerializationContext) {
-            final var obj = new JsonObject();
-            obj.addProperty("a", bond.a);
-            obj.addProperty("b", bond.b);
-            if (bond.centered) obj.addProperty("centered", true);
-            final var lines = new JsonArray();
-            for (final var line : bond.lines) lines.add(jsonSerializationContext.serialize(line, Line.class));
-            obj.add("lines", lines);
-            return obj;
+        public @Nullable Bond read(JsonReader in) throws IOException {
+            if (ElementFields.skipNull(in)) return null;
+            return fromFields(ElementFields.read(in, "Bond JSON must be an object"));
+        }
+
+        static void writeFields(JsonWriter out, Bond bond) throws IOException {
+            out.name("a").value(bond.a);
+            out.name("b").value(bond.b);
+            if (bond.centered) out.name("centered").value(true);
+            out.name("lines").beginArray();
+            for (final var line : bond.lines) Line.Json.INSTANCE.write(out, line);
+            out.endArray();
+        }
+
+        @Override
+        public void write(JsonWriter out, @Nullable Bond bond) throws IOException {
+            if (Objects.isNull(bond)) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeFields(out, bond);
+            out.endObject();
         }
     }
 
@@ -1,10 +1,14 @@
 package com.rubenverg.moldraw.molecule;
 
-import com.google.gson.*;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Matrix2f;
 import org.joml.Matrix2fc;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.Objects;
 
 public record CircleTransformation(
@@ -27,45 +31,49 @@ public record CircleTransformation(
         return new CircleTransformation(A, newIndices);
     }
 
-    public static class Json implements JsonSerializer<CircleTransformation>, JsonDeserializer<CircleTransformation> {
+    public static class Json extends TypeAdapter<CircleTransformation> {
 
         private Json() {}
 
         public static CircleTransformation.Json INSTANCE = new CircleTransformation.Json();
 
-        @Override
-        public CircleTransformation deserialize(JsonElement jsonElement, Type type,
-                                                JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            if (!jsonElement.isJsonObject())
-                throw new JsonParseException("Circle transformation JSON must be an object");
-            final var obj = jsonElement.getAsJsonObject();
-            Matrix2f mat = null;
-            if (obj.has("x") && obj.has("y"))
-                mat = new Matrix2f().identity().scale(obj.get("x").getAsFloat(), obj.get("y").getAsFloat());
-            else if (obj.has("a00") && obj.has("a01") && obj.has("a10") && obj.has("a11"))
-                mat = new Matrix2f(obj.get("a00").getAsFloat(), obj.get("a01").getAsFloat(),
-                        obj.get("a10").getAsFloat(), obj.get("a11").getAsFloat());
-            if (Objects.isNull(mat))
+        static CircleTransformation fromFields(ElementFields fields) {
+            final Matrix2f mat;
+            if (Objects.nonNull(fields.x) && Objects.nonNull(fields.y))
+                mat = new Matrix2f().identity().scale(fields.x, fields.y);
+            else if (Objects.nonNull(fields.a00) && Objects.nonNull(fields.a01) && Objects.nonNull(fields.a10) &&
+                    Objects.nonNull(fields.a11))
+                mat = new Matrix2f(fields.a00, fields.a01, fields.a10, fields.a11);
+            else
                 throw new JsonParseException("Circle transformation must have either x and y or a00, a01, a10, a11");
-            return new CircleTransformation(
-                    mat,
-                    obj.getAsJsonArray("atoms").asList().stream().mapToInt(JsonElement::getAsInt).toArray());
+            if (Objects.isNull(fields.atoms))
+                throw new JsonParseException("Circle transformation JSON must have atoms property");
+            return new CircleTransformation(mat, fields.atoms);
+        }
+
+        @Override
+        public @Nullable CircleTransformation read(JsonReader in) throws IOException {
+            if (ElementFields.skipNull(in)) return null;
+            return fromFields(ElementFields.read(in, "Circle transformation JSON must be an object"));
+        }
+
+        static void writeFields(JsonWriter out, CircleTransformation ct) throws IOException {
+            ElementFields.writeFloat(out, "a00", ct.A.m00());
+            ElementFields.writeFloat(out, "a01", ct.A.m01());
+            ElementFields.writeFloat(out, "a10", ct.A.m10());
+            ElementFields.writeFloat(out, "a11", ct.A.m11());
+            ElementFields.writeInts(out, "atoms", ct.atoms);
         }
 
         @Override
-        public JsonElement serialize(CircleTransformation ct, Type type,
-                                     JsonSerializationContext jsonSerializationContext) {
-            final var obj = new JsonObject();
-            obj.addProperty("a00", ct.A.m00());
-            obj.addProperty("a01", ct.A.m01());
-            obj.addProperty("a10", ct.A.m10());
-            obj.addProperty("a11", ct.A.m11());
-            final var atomsArr = new JsonArray();
-            for (final var atom : ct.atoms) {
-                atomsArr.add(atom);
+        public void write(JsonWriter out, @Nullable CircleTransformation ct) throws IOException {
+            if (Objects.isNull(ct)) {
+                out.nullValue();
+                return;
             }
-            obj.add("atoms", atomsArr);
-            return obj;
+            out.beginObject();
+            writeFields(out, ct);
+            out.endObject();
         }
     }
 }
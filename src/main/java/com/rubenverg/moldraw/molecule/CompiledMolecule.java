@@ -0,0 +1,263 @@
+package com.rubenverg.moldraw.molecule;
+
+import com.rubenverg.moldraw.MolDrawConfig;
+import it.unimi.dsi.fastutil.floats.FloatList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable, index-addressed form of a {@link Molecule}, built once and shared by the renderer.
+ * <p>
+ * Atoms live in dense slots (in {@link CompositeElement#flatChildren()} order), atom indices map to slots through a
+ * flat table, bonds are stored as slot pairs with a CSR adjacency, and composite elements are expanded ahead of time so
+ * that drawing never has to walk or rebuild the element tree.
+ */
+public final class CompiledMolecule {
+
+    private final MolDrawConfig.MoleculeConfig.AromaticMode aromaticMode;
+
+    private final Atom[] atoms;
+    private final int indexOffset;
+    private final int[] slotByIndex;
+    // for each slot, the top-level composite the atom was expanded from (-1 for top-level atoms) and its covered atoms
+    private final int[] atomOwner;
+    private final int[][] owners;
+
+    private final Bond[] bonds;
+    private final int[] bondSlotA;
+    private final int[] bondSlotB;
+    private final int[] adjacencyStart;
+    private final int[] adjacency;
+
+    private final MoleculeElement<?>[] elements;
+    private final int[] elementRing;
+    private final BenzeneRing[] rings;
+
+    private final float[] spinGroups;
+    private final Vector3fc[] spinCenters;
+
+    private final Vector2f min;
+    private final Vector2f max;
+
+    CompiledMolecule(Molecule molecule, MolDrawConfig.MoleculeConfig.AromaticMode aromaticMode) {
+        this.aromaticMode = aromaticMode;
+
+        final List<MoleculeElement<?>> flat = new ArrayList<>();
+        final IntList ringOf = new IntArrayList();
+        final List<BenzeneRing> ringList = new ArrayList<>();
+        final IntList ownerOf = new IntArrayList();
+        final List<int[]> ownerList = new ArrayList<>();
+        for (final var elem : molecule.contents()) {
+            final var owner = elem instanceof CompositeElement<?> ? ownerList.size() : -1;
+            if (owner >= 0) ownerList.add(elem.coveredAtoms());
+            expand(elem, -1, flat, ringOf, ringList);
+            while (ownerOf.size() < flat.size()) ownerOf.add(owner);
+        }
+        this.elements = flat.toArray(MoleculeElement<?>[]::new);
+        this.owners = ownerList.toArray(int[][]::new);
+        this.elementRing = ringOf.toIntArray();
+        this.rings = ringList.toArray(BenzeneRing[]::new);
+
+        final List<Atom> atomList = new ArrayList<>();
+        final List<Bond> bondList = new ArrayList<>();
+        final IntList atomOwnerList = new IntArrayList();
+        for (var i = 0; i < elements.length; i++) {
+            if (elements[i] instanceof Atom atom) {
+                atomList.add(atom);
+                atomOwnerList.add(ownerOf.getInt(i));
+            } else if (elements[i] instanceof Bond bond) bondList.add(bond);
+        }
+        this.atoms = atomList.toArray(Atom[]::new);
+        this.atomOwner = atomOwnerList.toIntArray();
+
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        for (final var atom : atoms) {
+            lo = Math.min(lo, atom.index());
+            hi = Math.max(hi, atom.index());
+        }
+        this.indexOffset = atoms.length == 0 ? 0 : lo;
+        this.slotByIndex = new int[atoms.length == 0 ? 0 : hi - lo + 1];
+        Arrays.fill(slotByIndex, -1);
+        // like Molecule.getAtom, the first atom with a given index wins
+        for (var slot = atoms.length - 1; slot >= 0; slot--) slotByIndex[atoms[slot].index() - indexOffset] = slot;
+
+        this.bonds = bondList.toArray(Bond[]::new);
+        this.bondSlotA = new int[bonds.length];
+        this.bondSlotB = new int[bonds.length];
+        this.adjacencyStart = new int[atoms.length + 1];
+        for (var i = 0; i < bonds.length; i++) {
+            bondSlotA[i] = slotOf(bonds[i].a());
+            bondSlotB[i] = slotOf(bonds[i].b());
+            if (bondSlotA[i] >= 0) adjacencyStart[bondSlotA[i] + 1]++;
+            if (bondSlotB[i] >= 0 && bondSlotB[i] != bondSlotA[i]) adjacencyStart[bondSlotB[i] + 1]++;
+        }
+        for (var slot = 0; slot < atoms.length; slot++) adjacencyStart[slot + 1] += adjacencyStart[slot];
+        this.adjacency = new int[adjacencyStart[atoms.length]];
+        final var fill = Arrays.copyOf(adjacencyStart, atoms.length);
+        for (var i = 0; i < bonds.length; i++) {
+            if (bondSlotA[i] >= 0) adjacency[fill[bondSlotA[i]]++] = i;
+            if (bondSlotB[i] >= 0 && bondSlotB[i] != bondSlotA[i]) adjacency[fill[bondSlotB[i]]++] = i;
+        }
+
+        final FloatList spin = molecule.spinGroups();
+        this.spinGroups = spin.toFloatArray();
+        final var centers = new Vector3f[spinGroups.length];
+        final var counts = new int[spinGroups.length];
+        for (var i = 0; i < centers.length; i++) centers[i] = new Vector3f();
+        // only top-level atoms take part in the spin centroid
+        for (final var elem : molecule.contents()) if (elem instanceof Atom atom) {
+            if (atom.spinGroup() >= 0 && atom.spinGroup() < centers.length) {
+                centers[atom.spinGroup()].add(atom.position());
+                counts[atom.spinGroup()]++;
+            }
+        }
+        for (var i = 0; i < centers.length; i++) centers[i].div(counts[i]);
+        this.spinCenters = centers;
+
+        if (atoms.length == 0) {
+            this.min = new Vector2f();
+            this.max = new Vector2f();
+        } else {
+            this.min = new Vector2f(atoms[0].position().x, atoms[0].position().y);
+            this.max = new Vector2f(min);
+            for (final var atom : atoms) {
+                min.min(new Vector2f(atom.position().x, atom.position().y));
+                max.max(new Vector2f(atom.position().x, atom.position().y));
+            }
+        }
+    }
+
+    private static void expand(MoleculeElement<?> elem, int ring, List<MoleculeElement<?>> flat, IntList ringOf,
+                               List<BenzeneRing> rings) {
+        if (elem instanceof CompositeElement<?> composite) {
+            var childRing = -1;
+            if (composite instanceof BenzeneRing benzene) {
+                childRing = rings.size();
+                rings.add(benzene);
+            }
+            for (final var child : composite.children()) expand(child, childRing, flat, ringOf, rings);
+        } else {
+            flat.add(elem);
+            ringOf.add(ring);
+        }
+    }
+
+    public MolDrawConfig.MoleculeConfig.AromaticMode aromaticMode() {
+        return aromaticMode;
+    }
+
+    public int atomCount() {
+        return atoms.length;
+    }
+
+    public Atom atomAt(int slot) {
+        return atoms[slot];
+    }
+
+    public int slotOf(int index) {
+        final var i = index - indexOffset;
+        return i < 0 || i >= slotByIndex.length ? -1 : slotByIndex[i];
+    }
+
+    public @Nullable Atom atom(int index) {
+        final var slot = slotOf(index);
+        return slot < 0 ? null : atoms[slot];
+    }
+
+    /**
+     * The slots of the atoms {@code subset(indices).atoms()} would give on the source molecule, without building it:
+     * atoms with one of the indices, except those expanded from a composite element that the indices don't fully cover.
+     */
+    public int[] slotsCovering(int[] indices) {
+        final var sorted = indices.clone();
+        Arrays.sort(sorted);
+        final IntList slots = new IntArrayList();
+        for (var slot = 0; slot < atoms.length; slot++) {
+            if (Arrays.binarySearch(sorted, atoms[slot].index()) < 0) continue;
+            if (atomOwner[slot] >= 0 && !coversAll(sorted, owners[atomOwner[slot]])) continue;
+            slots.add(slot);
+        }
+        return slots.toIntArray();
+    }
+
+    private static boolean coversAll(int[] sorted, int[] indices) {
+        for (final var index : indices) if (Arrays.binarySearch(sorted, index) < 0) return false;
+        return true;
+    }
+
+    public int bondCount() {
+        return bonds.length;
+    }
+
+    public Bond bondAt(int bond) {
+        return bonds[bond];
+    }
+
+    public int bondSlotA(int bond) {
+        return bondSlotA[bond];
+    }
+
+    public int bondSlotB(int bond) {
+        return bondSlotB[bond];
+    }
+
+    public int degree(int slot) {
+        return adjacencyStart[slot + 1] - adjacencyStart[slot];
+    }
+
+    public int bondOf(int slot, int i) {
+        return adjacency[adjacencyStart[slot] + i];
+    }
+
+    public int elementCount() {
+        return elements.length;
+    }
+
+    public MoleculeElement<?> elementAt(int i) {
+        return elements[i];
+    }
+
+    public @Nullable BenzeneRing ringOf(int i) {
+        return elementRing[i] < 0 ? null : rings[elementRing[i]];
+    }
+
+    public int ringIndexOf(int i) {
+        return elementRing[i];
+    }
+
+    public int ringCount() {
+        return rings.length;
+    }
+
+    public BenzeneRing ringAt(int ring) {
+        return rings[ring];
+    }
+
+    public int spinGroupCount() {
+        return spinGroups.length;
+    }
+
+    public float spinGroup(int group) {
+        return spinGroups[group];
+    }
+
+    public Vector3fc spinCenter(int group) {
+        return spinCenters[group];
+    }
+
+    public Vector2f min() {
+        return new Vector2f(min);
+    }
+
+    public Vector2f max() {
+        return new Vector2f(max);
+    }
+}
@@ -4,19 +4,29 @@ import com.gregtechceu.gtceu.api.GTCEuAPI;
 import com.gregtechceu.gtceu.api.data.chemical.material.Material;
 import com.gregtechceu.gtceu.common.data.GTMaterials;
 
-import com.google.gson.*;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class Element {
 
-    private static final Map<String, Element> elements = new HashMap<>();
+    // guarded by itself, as molecules are parsed in parallel
+    private static final Map<String, Element> elements = new LinkedHashMap<>();
+    // first registered element for each material, so ions never shadow the element they were made from; replaced as a
+    // whole on reindex so readers never see it half built
+    private static volatile Map<Material, Element> byMaterial = new ConcurrentHashMap<>();
 
     public final String symbol;
     public final boolean invisible;
@@ -44,22 +54,34 @@ public class Element {
         this.additionalMaterials = new ArrayList<>(Arrays.asList(additionalMaterials));
     }
 
+    private static Element register(Element element, Map<Material, Element> index) {
+        if (!element.material.isNull()) index.putIfAbsent(element.material, element);
+        for (final var mat : element.additionalMaterials) if (!mat.isNull()) index.putIfAbsent(mat, element);
+        return element;
+    }
+
+    private static Element intern(String symbol, Function<String, Element> factory) {
+        synchronized (elements) {
+            return elements.computeIfAbsent(symbol, s -> register(factory.apply(s), byMaterial));
+        }
+    }
+
     public static Element create(String symbol) {
-        return elements.computeIfAbsent(symbol, s -> new Element(s, false));
+        return intern(symbol, s -> new Element(s, false));
     }
 
     public static Element create(String symbol, boolean invisible) {
-        return elements.computeIfAbsent(symbol, s -> new Element(s, invisible));
+        return intern(symbol, s -> new Element(s, invisible));
     }
 
     public static Element create(String symbol, Color color, @Nullable Material material,
                                  Material... additionalMaterials) {
-        return elements.computeIfAbsent(symbol, s -> new Element(s, false, color, material, additionalMaterials));
+        return intern(symbol, s -> new Element(s, false, color, material, additionalMaterials));
     }
 
     public static Element create(String symbol, boolean invisible, Color color, @Nullable Material material,
                                  Material... additionalMaterials) {
-        return elements.computeIfAbsent(symbol, s -> new Element(s, invisible, color, material, additionalMaterials));
+        return intern(symbol, s -> new Element(s, invisible, color, material, additionalMaterials));
     }
 
     private static Element createStandard(String symbol, Integer color, Material material,
@@ -70,11 +92,23 @@ public class Element {
         return el;
     }
 
+    public static @Nullable Element byMaterial(Material material) {
+        return byMaterial.get(material);
+    }
+
     public static Optional<Element> forMaterial(Material material) {
-        for (final var e : elements.values())
-            if (e.material.equals(material) || e.additionalMaterials.stream().anyMatch(mat -> mat.equals(material)))
-                return Optional.of(e);
-        return Optional.empty();
+        return Optional.ofNullable(byMaterial(material));
+    }
+
+    /**
+     * Rebuilds the material index from scratch, for when {@link #additionalMaterials} were changed after creation.
+     */
+    public static void reindex() {
+        synchronized (elements) {
+            final Map<Material, Element> index = new ConcurrentHashMap<>();
+            for (final var element : elements.values()) register(element, index);
+            byMaterial = index;
+        }
     }
 
     public Element posIon() {
@@ -230,42 +264,69 @@ public class Element {
         return new Counted(this, count);
     }
 
-    public static class Json implements JsonSerializer<Element>, JsonDeserializer<Element> {
+    public static class Json extends TypeAdapter<Element> {
 
         private Json() {}
 
         public static Element.Json INSTANCE = new Element.Json();
 
         @Override
-        public Element deserialize(JsonElement jsonElement, Type type,
-                                   JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            if (jsonElement.isJsonPrimitive()) return Element.create(jsonElement.getAsString());
-            else if (jsonElement.isJsonObject()) {
-                final var obj = jsonElement.getAsJsonObject();
-                if (obj.has("color")) return Element.create(obj.get("symbol").getAsString(),
-                        Objects.requireNonNullElse(obj.get("invisible"), new JsonPrimitive(false)).getAsBoolean(),
-                        jsonDeserializationContext.deserialize(obj.get("color"), Element.Color.class),
-                        obj.has("material") ? GTCEuAPI.materialManager.getMaterial(obj.get("material").getAsString()) :
-                                null);
-                else return Element.create(obj.get("symbol").getAsString(),
-                        Objects.requireNonNullElse(obj.get("invisible"), new JsonPrimitive(false)).getAsBoolean());
-            } else throw new JsonParseException("Invalid element JSON");
+        public @Nullable Element read(JsonReader in) throws IOException {
+            switch (in.peek()) {
+                case NULL -> {
+                    in.nextNull();
+                    return null;
+                }
+                case STRING, NUMBER, BOOLEAN -> {
+                    return Element.create(ElementFields.readString(in));
+                }
+                case BEGIN_OBJECT -> {}
+                default -> throw new JsonParseException("Invalid element JSON");
+            }
+            String symbol = null, material = null;
+            var invisible = false;
+            var hasColor = false;
+            Color color = Color.NONE;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "symbol" -> symbol = ElementFields.readString(in);
+                    case "invisible" -> invisible = ElementFields.readBoolean(in);
+                    case "color" -> {
+                        hasColor = true;
+                        color = Color.Json.INSTANCE.read(in);
+                    }
+                    case "material" -> material = ElementFields.readString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            if (Objects.isNull(symbol)) throw new JsonParseException("Element JSON must contain a symbol");
+            if (hasColor || Objects.nonNull(material)) return Element.create(symbol, invisible, color,
+                    Objects.nonNull(material) ? GTCEuAPI.materialManager.getMaterial(material) : null);
+            else return Element.create(symbol, invisible);
         }
 
         @Override
-        public JsonElement serialize(Element element, Type type,
-                                     JsonSerializationContext jsonSerializationContext) {
-            if (element.standard) return new JsonPrimitive(element.symbol);
-            if (element.color instanceof Element.Color.None && !element.invisible)
-                return new JsonPrimitive(element.symbol);
-            final var obj = new JsonObject();
-            obj.add("symbol", new JsonPrimitive(element.symbol));
-            if (element.invisible) obj.add("invisible", new JsonPrimitive(true));
-            if (!(element.color instanceof Element.Color.None))
-                obj.add("color", jsonSerializationContext.serialize(element.color, Element.Color.class));
+        public void write(JsonWriter out, @Nullable Element element) throws IOException {
+            if (Objects.isNull(element)) {
+                out.nullValue();
+                return;
+            }
+            if (element.standard || element.color instanceof Element.Color.None && !element.invisible) {
+                out.value(element.symbol);
+                return;
+            }
+            out.beginObject();
+            out.name("symbol").value(element.symbol);
+            if (element.invisible) out.name("invisible").value(true);
+            if (!(element.color instanceof Element.Color.None)) {
+                out.name("color");
+                Color.Json.INSTANCE.write(out, element.color);
+            }
             if (!element.material.isNull())
-                obj.add("material", new JsonPrimitive(element.material.getResourceLocation().toString()));
-            return obj;
+                out.name("material").value(element.material.getResourceLocation().toString());
+            out.endObject();
         }
     }
 
@@ -279,45 +340,55 @@ public class Element {
 
         record Optional(int color) implements Color {}
 
-        class Json implements JsonSerializer<Color>, JsonDeserializer<Color> {
+        class Json extends TypeAdapter<Color> {
 
             private Json() {}
 
             public static Color.Json INSTANCE = new Color.Json();
 
+            private static int readColor(JsonReader in) throws IOException {
+                // numbers are truncated like Number.intValue, so unsigned ARGB values still work
+                if (in.peek() == JsonToken.NUMBER) return ElementFields.readInt(in);
+                return java.awt.Color.decode(ElementFields.readString(in)).getRGB() | (0xff << 24);
+            }
+
             @Override
-            public Color deserialize(JsonElement jsonElement, Type type,
-                                     JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-                if (jsonElement.isJsonNull()) return NONE;
-                if (jsonElement.isJsonPrimitive()) {
-                    final var prim = jsonElement.getAsJsonPrimitive();
-                    if (prim.isString())
-                        return new Always(java.awt.Color.decode(prim.getAsString()).getRGB() | (0xff << 24));
-                    else if (prim.isNumber()) return new Always(prim.getAsNumber().intValue());
+            public Color read(JsonReader in) throws IOException {
+                switch (in.peek()) {
+                    case NULL -> {
+                        in.nextNull();
+                        return NONE;
+                    }
+                    case STRING, NUMBER -> {
+                        return new Always(readColor(in));
+                    }
+                    case BEGIN_OBJECT -> {}
+                    default -> throw new JsonParseException("Invalid element color JSON");
                 }
-                if (jsonElement.isJsonObject()) {
-                    final var obj = jsonElement.getAsJsonObject();
-                    final var colPrim = obj.get("color").getAsJsonPrimitive();
-                    final var col = colPrim.isString() ?
-                            java.awt.Color.decode(colPrim.getAsString()).getRGB() | (0xff << 24) :
-                            colPrim.getAsNumber().intValue();
-                    final var optional = obj.has("optional") ? obj.getAsJsonPrimitive("optional").getAsBoolean() : true;
-                    return optional ? new Optional(col) : new Always(col);
-                } else throw new JsonParseException("Invalid element color JSON");
+                Integer col = null;
+                var optional = true;
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case "color" -> col = readColor(in);
+                        case "optional" -> optional = ElementFields.readBoolean(in);
+                        default -> in.skipValue();
+                    }
+                }
+                in.endObject();
+                if (Objects.isNull(col)) throw new JsonParseException("Element color JSON must contain a color");
+                return optional ? new Optional(col) : new Always(col);
             }
 
             @Override
-            public JsonElement serialize(Color color, Type type,
-                                         JsonSerializationContext jsonSerializationContext) {
-                if (color instanceof None) return JsonNull.INSTANCE;
-                if (color instanceof Always always) return new JsonPrimitive(always.color);
-                if (color instanceof Optional optional) {
-                    final var obj = new JsonObject();
-                    obj.add("color", new JsonPrimitive(optional.color));
-                    obj.add("optional", new JsonPrimitive(true));
-                    return obj;
-                }
-                return JsonNull.INSTANCE;
+            public void write(JsonWriter out, @Nullable Color color) throws IOException {
+                if (color instanceof Always always) out.value(always.color);
+                else if (color instanceof Optional optional) {
+                    out.beginObject();
+                    out.name("color").value(optional.color);
+                    out.name("optional").value(true);
+                    out.endObject();
+                } else out.nullValue();
             }
         }
     }
@@ -334,32 +405,43 @@ public class Element {
             return builder.toString();
         }
 
-        public static class Json implements JsonSerializer<Counted>, JsonDeserializer<Counted> {
+        public static class Json extends TypeAdapter<Counted> {
 
             private Json() {}
 
             public static Json INSTANCE = new Json();
 
             @Override
-            public Counted deserialize(JsonElement jsonElement, Type type,
-                                       JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-                if (jsonElement.isJsonPrimitive() || jsonElement.isJsonObject())
-                    return jsonDeserializationContext.<Element>deserialize(jsonElement, Element.class).count(1);
-                else if (jsonElement.isJsonArray())
-                    return jsonDeserializationContext
-                            .<Element>deserialize(jsonElement.getAsJsonArray().get(0), Element.class)
-                            .count(jsonElement.getAsJsonArray().get(1).getAsInt());
-                else throw new JsonParseException("Invalid element JSON");
+            public @Nullable Counted read(JsonReader in) throws IOException {
+                if (ElementFields.skipNull(in)) return null;
+                if (in.peek() != JsonToken.BEGIN_ARRAY) return readElement(in).count(1);
+                in.beginArray();
+                final var counted = readElement(in).count(ElementFields.readInt(in));
+                while (in.hasNext()) in.skipValue();
+                in.endArray();
+                return counted;
+            }
+
+            private static Element readElement(JsonReader in) throws IOException {
+                final var element = Element.Json.INSTANCE.read(in);
+                if (Objects.isNull(element)) throw new JsonParseException("Invalid element JSON");
+                return element;
             }
 
             @Override
-            public JsonElement serialize(Counted counted, Type type,
-                                         JsonSerializationContext jsonSerializationContext) {
-                if (counted.count == 1) return jsonSerializationContext.serialize(counted.element);
-                final var arr = new JsonArray();
-                arr.add(jsonSerializationContext.serialize(counted.element));
-                arr.add(counted.count);
-                return arr;
+            public void write(JsonWriter out, @Nullable Counted counted) throws IOException {
+                if (Objects.isNull(counted)) {
+                    out.nullValue();
+                    return;
+                }
+                if (counted.count == 1) {
+                    Element.Json.INSTANCE.write(out, counted.element);
+                    return;
+                }
+                out.beginArray();
+                Element.Json.INSTANCE.write(out, counted.element);
+                out.value(counted.count);
+                out.endArray();
             }
         }
     }
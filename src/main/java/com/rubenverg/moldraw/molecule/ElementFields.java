@@ -0,0 +1,179 @@
+package com.rubenverg.moldraw.molecule;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The fields of one molecule element object, read in a single pass. Every key any element type understands is
+ * collected here, so that {@code type} (which the writers put last) and combinations like {@code u}/{@code v} versus
+ * {@code x}/{@code y} can be resolved once the whole object has been read, without building a JSON tree for it.
+ */
+final class ElementFields {
+
+    @Nullable
+    String type, bondType, sub, sup;
+    @Nullable
+    Integer index, a, b, spinGroup, startIndex, count;
+    @Nullable
+    Element.Counted element, above, right, below, left;
+    @Nullable
+    Float u, v, x, y, z, u0, v0, x0, y0, z0, u1, v1, x1, y1, z1, angle, a00, a01, a10, a11;
+    @Nullable
+    Boolean centered, clockwise;
+    @Nullable
+    Bond.Line[] lines;
+    @Nullable
+    int[] atoms, indices;
+
+    private ElementFields() {}
+
+    static ElementFields read(JsonReader in, String notAnObject) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) throw new JsonParseException(notAnObject);
+        final var fields = new ElementFields();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "type" -> fields.type = readString(in);
+                case "index" -> fields.index = readInt(in);
+                case "element" -> fields.element = Element.Counted.Json.INSTANCE.read(in);
+                case "above" -> fields.above = Element.Counted.Json.INSTANCE.read(in);
+                case "right" -> fields.right = Element.Counted.Json.INSTANCE.read(in);
+                case "below" -> fields.below = Element.Counted.Json.INSTANCE.read(in);
+                case "left" -> fields.left = Element.Counted.Json.INSTANCE.read(in);
+                case "u" -> fields.u = readFloat(in);
+                case "v" -> fields.v = readFloat(in);
+                case "x" -> fields.x = readFloat(in);
+                case "y" -> fields.y = readFloat(in);
+                case "z" -> fields.z = readFloat(in);
+                case "spin_group" -> fields.spinGroup = readInt(in);
+                case "a" -> fields.a = readInt(in);
+                case "b" -> fields.b = readInt(in);
+                case "bond_type" -> fields.bondType = readString(in);
+                case "centered" -> fields.centered = readBoolean(in);
+                case "lines" -> fields.lines = readLines(in);
+                case "sub" -> fields.sub = readString(in);
+                case "sup" -> fields.sup = readString(in);
+                case "atoms" -> fields.atoms = readInts(in);
+                case "a00" -> fields.a00 = readFloat(in);
+                case "a01" -> fields.a01 = readFloat(in);
+                case "a10" -> fields.a10 = readFloat(in);
+                case "a11" -> fields.a11 = readFloat(in);
+                case "indices" -> fields.indices = readInts(in);
+                case "start_index" -> fields.startIndex = readInt(in);
+                case "count" -> fields.count = readInt(in);
+                case "u0" -> fields.u0 = readFloat(in);
+                case "v0" -> fields.v0 = readFloat(in);
+                case "x0" -> fields.x0 = readFloat(in);
+                case "y0" -> fields.y0 = readFloat(in);
+                case "z0" -> fields.z0 = readFloat(in);
+                case "u1" -> fields.u1 = readFloat(in);
+                case "v1" -> fields.v1 = readFloat(in);
+                case "x1" -> fields.x1 = readFloat(in);
+                case "y1" -> fields.y1 = readFloat(in);
+                case "z1" -> fields.z1 = readFloat(in);
+                case "angle" -> fields.angle = readFloat(in);
+                case "clockwise" -> fields.clockwise = readBoolean(in);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return fields;
+    }
+
+    MoleculeElement<?> toElement() {
+        if (Objects.isNull(type)) throw new JsonParseException("Molecule JSON contents must have a type");
+        return switch (type) {
+            case "atom" -> Atom.Json.fromFields(this);
+            case "bond" -> Bond.Json.fromFields(this);
+            case "parens" -> Parens.Json.fromFields(this);
+            case "circle" -> CircleTransformation.Json.fromFields(this);
+            case "benzene" -> BenzeneRing.Json.fromFields(this);
+            default -> throw new JsonParseException("Molecule JSON contents have unknown type %s".formatted(type));
+        };
+    }
+
+    /** A position given either as {@code u}, {@code v} or as {@code x}, {@code y} and an optional {@code z}. */
+    static @Nullable Vector3f position(@Nullable Float u, @Nullable Float v, @Nullable Float x, @Nullable Float y,
+                                       @Nullable Float z) {
+        if (Objects.nonNull(u) && Objects.nonNull(v)) {
+            final var xy = new Vector2f(u, v).mul(MathUtils.UVtoXY);
+            return new Vector3f(xy, 0);
+        }
+        if (Objects.nonNull(x) && Objects.nonNull(y)) return new Vector3f(x, y, Objects.requireNonNullElse(z, 0f));
+        return null;
+    }
+
+    static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.NULL) return false;
+        in.nextNull();
+        return true;
+    }
+
+    // parsed from the literal, like JsonPrimitive.getAsFloat, rather than rounded through a double
+    static float readFloat(JsonReader in) throws IOException {
+        return Float.parseFloat(in.nextString());
+    }
+
+    // truncated like LazilyParsedNumber.intValue, which the tree adapters went through, rather than rejected
+    static int readInt(JsonReader in) throws IOException {
+        final var literal = in.nextString();
+        try {
+            return Integer.parseInt(literal);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Long.parseLong(literal);
+            } catch (NumberFormatException e2) {
+                return new BigDecimal(literal).intValue();
+            }
+        }
+    }
+
+    static boolean readBoolean(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.BOOLEAN) return in.nextBoolean();
+        return Boolean.parseBoolean(in.nextString());
+    }
+
+    static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.BOOLEAN) return Boolean.toString(in.nextBoolean());
+        return in.nextString();
+    }
+
+    static int[] readInts(JsonReader in) throws IOException {
+        final var list = new IntArrayList();
+        in.beginArray();
+        while (in.hasNext()) list.add(readInt(in));
+        in.endArray();
+        return list.toIntArray();
+    }
+
+    private static Bond.Line[] readLines(JsonReader in) throws IOException {
+        final List<Bond.Line> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) list.add(Bond.Line.Json.INSTANCE.read(in));
+        in.endArray();
+        return list.toArray(Bond.Line[]::new);
+    }
+
+    // boxed so that JsonWriter.value(Number) prints it with Float.toString, as the tree writer did
+    static void writeFloat(JsonWriter out, String name, float value) throws IOException {
+        out.name(name).value(Float.valueOf(value));
+    }
+
+    static void writeInts(JsonWriter out, String name, int[] values) throws IOException {
+        out.name(name).beginArray();
+        for (final var value : values) out.value(value);
+        out.endArray();
+    }
+}
@@ -1,24 +1,27 @@
 package com.rubenverg.moldraw.molecule;
 
-import com.google.gson.*;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.mojang.datafixers.util.Pair;
+import com.rubenverg.moldraw.MolDrawConfig;
 import it.unimi.dsi.fastutil.floats.FloatArrayList;
 import it.unimi.dsi.fastutil.floats.FloatList;
 import it.unimi.dsi.fastutil.ints.Int2IntArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import lombok.Getter;
-import lombok.Setter;
 import lombok.experimental.Accessors;
 import org.jetbrains.annotations.Nullable;
 import org.joml.*;
 
 import java.lang.Math;
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.IntUnaryOperator;
-import java.util.stream.Collectors;
 
 @Accessors(fluent = true, chain = true)
 public class Molecule implements CompositeElement<Molecule> {
@@ -28,8 +31,8 @@ public class Molecule implements CompositeElement<Molecule> {
     @Getter
     private final Matrix3d transformation = new Matrix3d();
     @Getter
-    @Setter
     private FloatList spinGroups = new FloatArrayList();
+    private volatile @Nullable CompiledMolecule compiled;
 
     public Molecule() {}
 
@@ -53,8 +56,25 @@ public class Molecule implements CompositeElement<Molecule> {
         return this.transformation(mat);
     }
 
+    public Molecule spinGroups(FloatList spinGroups) {
+        this.spinGroups = spinGroups;
+        this.compiled = null;
+        return this;
+    }
+
+    public CompiledMolecule compiled() {
+        final var mode = MolDrawConfig.INSTANCE.molecule.benzeneCircle;
+        var result = this.compiled;
+        if (Objects.isNull(result) || result.aromaticMode() != mode) {
+            result = new CompiledMolecule(this, mode);
+            this.compiled = result;
+        }
+        return result;
+    }
+
     public Molecule addNoTransform(MoleculeElement<?> elem) {
         this.contents.add(elem);
+        this.compiled = null;
         return this;
     }
 
@@ -71,6 +91,7 @@ public class Molecule implements CompositeElement<Molecule> {
     public Molecule addAll(Molecule mol) {
         // don't call beforeAdd since they were already added
         this.contents.addAll(mol.contents);
+        this.compiled = null;
         return this;
     }
 
@@ -189,9 +210,15 @@ public class Molecule implements CompositeElement<Molecule> {
     }
 
     public Molecule affine(Matrix4x3fc transformation) {
-        for (final var atom : atoms()) {
-            atom.position().mulPosition(transformation);
+        // benzene ring atoms are derived from the ring, so the ring itself is moved instead
+        for (final var elem : this.contents) {
+            if (elem instanceof Atom atom) atom.position().mulPosition(transformation);
+            else if (elem instanceof BenzeneRing ring) {
+                ring.first().mulPosition(transformation);
+                ring.next().mulPosition(transformation);
+            } else if (elem instanceof Molecule molecule) molecule.affine(transformation);
         }
+        this.compiled = null;
         return this;
     }
 
@@ -281,67 +308,89 @@ public class Molecule implements CompositeElement<Molecule> {
                 .bond(0, 4);
     }
 
-    public static class Json implements JsonSerializer<Molecule>, JsonDeserializer<Molecule> {
+    public static class Json extends TypeAdapter<Molecule> {
 
         private Json() {}
 
         public static Json INSTANCE = new Json();
 
         @Override
-        public Molecule deserialize(JsonElement jsonElement, Type reflectType,
-                                    JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            if (!jsonElement.isJsonObject()) throw new JsonParseException("Molecule JSON must be an object");
-            final var obj = jsonElement.getAsJsonObject();
-            if (!obj.has("contents")) throw new JsonParseException("Molecule JSON must contain contents property");
+        public @Nullable Molecule read(JsonReader in) throws IOException {
+            if (ElementFields.skipNull(in)) return null;
+            if (in.peek() != JsonToken.BEGIN_OBJECT) throw new JsonParseException("Molecule JSON must be an object");
             final var molecule = new Molecule();
-            obj.getAsJsonArray("contents").asList().forEach(content -> {
-                if (!content.isJsonObject()) throw new JsonParseException("Molecule JSON contents must be objects");
-                final var contentObj = content.getAsJsonObject();
-                final var type = contentObj.get("type").getAsString();
-                molecule.add(switch (type) {
-                    // is there a better way?
-                    case "atom" -> jsonDeserializationContext.deserialize(contentObj, Atom.class);
-                    case "bond" -> jsonDeserializationContext.deserialize(contentObj, Bond.class);
-                    case "parens" -> jsonDeserializationContext.deserialize(contentObj, Parens.class);
-                    case "circle" -> jsonDeserializationContext.deserialize(contentObj, CircleTransformation.class);
-                    case "benzene" -> jsonDeserializationContext.deserialize(contentObj, BenzeneRing.class);
-                    default -> throw new JsonParseException(
-                            "Molecule JSON contents have unknown type %s".formatted(type));
-                });
-            });
-            if (obj.has("spin")) {
-                if (obj.get("spin").isJsonPrimitive()) {
-                    if (obj.getAsJsonPrimitive("spin").isBoolean() && obj.get("spin").getAsBoolean())
-                        molecule.spinGroups(FloatList.of(1 / 4f));
-                    else if (obj.getAsJsonPrimitive("spin").isNumber())
-                        molecule.spinGroups(FloatList.of(obj.get("spin").getAsFloat()));
-                } else if (obj.get("spin").isJsonArray()) {
-                    molecule.spinGroups(obj.getAsJsonArray("spin").asList().stream().map(JsonElement::getAsFloat)
-                            .collect(Collectors.toCollection(FloatArrayList::new)));
-                } else throw new JsonParseException("Invalid spin");
+            var hasContents = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "contents" -> {
+                        hasContents = true;
+                        in.beginArray();
+                        while (in.hasNext()) molecule.add(
+                                ElementFields.read(in, "Molecule JSON contents must be objects").toElement());
+                        in.endArray();
+                    }
+                    case "spin" -> readSpin(in, molecule);
+                    default -> in.skipValue();
+                }
             }
+            in.endObject();
+            if (!hasContents) throw new JsonParseException("Molecule JSON must contain contents property");
             return molecule;
         }
 
-        @Override
-        public JsonElement serialize(Molecule molecule, Type type, JsonSerializationContext jsonSerializationContext) {
-            final var obj = new JsonObject();
-            final var arr = new JsonArray();
+        private static void readSpin(JsonReader in, Molecule molecule) throws IOException {
+            switch (in.peek()) {
+                case BOOLEAN -> {
+                    if (in.nextBoolean()) molecule.spinGroups(FloatList.of(1 / 4f));
+                }
+                case NUMBER -> molecule.spinGroups(FloatList.of(ElementFields.readFloat(in)));
+                case STRING -> in.skipValue();
+                case BEGIN_ARRAY -> {
+                    final var spin = new FloatArrayList();
+                    in.beginArray();
+                    while (in.hasNext()) spin.add(ElementFields.readFloat(in));
+                    in.endArray();
+                    molecule.spinGroups(spin);
+                }
+                default -> throw new JsonParseException("Invalid spin");
+            }
+        }
+
+        private static void writeFields(JsonWriter out, Molecule molecule) throws IOException {
+            out.name("contents").beginArray();
             for (final var content : molecule.contents) {
-                final var c = jsonSerializationContext.serialize(content);
-                c.getAsJsonObject().addProperty("type", content.type());
-                arr.add(c);
+                out.beginObject();
+                if (content instanceof Atom atom) Atom.Json.writeFields(out, atom);
+                else if (content instanceof Bond bond) Bond.Json.writeFields(out, bond);
+                else if (content instanceof Parens parens) Parens.Json.writeFields(out, parens);
+                else if (content instanceof CircleTransformation ct) CircleTransformation.Json.writeFields(out, ct);
+                else if (content instanceof BenzeneRing ring) BenzeneRing.Json.writeFields(out, ring);
+                else if (content instanceof Molecule inner) writeFields(out, inner);
+                out.name("type").value(content.type());
+                out.endObject();
             }
-            obj.add("contents", arr);
+            out.endArray();
             if (!molecule.spinGroups.isEmpty()) {
-                if (molecule.spinGroups.size() == 1) obj.addProperty("spin", molecule.spinGroups.getFloat(0));
+                if (molecule.spinGroups.size() == 1)
+                    ElementFields.writeFloat(out, "spin", molecule.spinGroups.getFloat(0));
                 else {
-                    final var spin = new JsonArray();
-                    molecule.spinGroups.forEach(spin::add);
-                    obj.add("spin", spin);
+                    out.name("spin").beginArray();
+                    for (final Float spin : molecule.spinGroups) out.value(spin);
+                    out.endArray();
                 }
             }
-            return obj;
+        }
+
+        @Override
+        public void write(JsonWriter out, @Nullable Molecule molecule) throws IOException {
+            if (Objects.isNull(molecule)) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeFields(out, molecule);
+            out.endObject();
         }
     }
 }
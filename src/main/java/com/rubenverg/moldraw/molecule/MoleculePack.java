@@ -0,0 +1,356 @@
+package com.rubenverg.moldraw.molecule;
+
+import com.gregtechceu.gtceu.api.GTCEuAPI;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.Int2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix2f;
+import org.joml.Vector3f;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A compact binary form of the molecules of one namespace, written by datagen next to their JSON files as
+ * {@code assets/<namespace>/molecules.bin}. Strings, elements and coordinate values are stored once in tables and
+ * referenced by index, and bond lines are packed two to a byte. Coordinates are quantized to a table of the exact
+ * float values the pack uses rather than to a grid, so a pack decodes to the same molecules as its JSON. Each
+ * molecule is prefixed with its length, so a single one can be decoded without going through the rest.
+ */
+public class MoleculePack {
+
+    public static final String PATH = "molecules.bin";
+
+    private static final int MAGIC = 0x4d44504b; // "MDPK"
+    private static final int VERSION = 2;
+
+    private static final int ATOM = 0, BOND = 1, PARENS = 2, CIRCLE = 3, BENZENE = 4;
+    private static final int PLAIN = 1, INVISIBLE = 2, ALWAYS_COLOR = 4, OPTIONAL_COLOR = 8, MATERIAL = 16;
+    private static final int CENTERED = 0x80;
+
+    private static class Tables {
+
+        final Object2IntMap<String> strings = new Object2IntLinkedOpenHashMap<>();
+        final Int2IntMap floats = new Int2IntLinkedOpenHashMap();
+        final Reference2IntMap<Element> elements = new Reference2IntLinkedOpenHashMap<>();
+
+        int string(String string) {
+            return strings.computeIfAbsent(string, _s -> strings.size());
+        }
+
+        // keyed on the bits, so that -0.0 and 0.0 stay apart
+        int floatValue(float value) {
+            return floats.computeIfAbsent(Float.floatToRawIntBits(value), _bits -> floats.size());
+        }
+
+        // mirrors Element.Json: these are a bare symbol, and any other element keeps its material
+        static boolean plain(Element element) {
+            return element.standard || element.color instanceof Element.Color.None && !element.invisible;
+        }
+
+        int element(Element element) {
+            if (!elements.containsKey(element)) {
+                string(element.symbol);
+                if (!plain(element) && !element.material.isNull())
+                    string(element.material.getResourceLocation().toString());
+                elements.put(element, elements.size());
+            }
+            return elements.getInt(element);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeVarInt(out, strings.size());
+            for (final var string : strings.keySet()) {
+                final var bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, bytes.length);
+                out.write(bytes);
+            }
+            writeVarInt(out, floats.size());
+            for (final var bits : floats.keySet()) out.writeInt(bits);
+            writeVarInt(out, elements.size());
+            for (final var element : elements.keySet()) {
+                final var plain = plain(element);
+                var flags = plain ? PLAIN : element.invisible ? INVISIBLE : 0;
+                var color = 0;
+                if (!plain && element.color instanceof Element.Color.Always always) {
+                    flags |= ALWAYS_COLOR;
+                    color = always.color();
+                } else if (!plain && element.color instanceof Element.Color.Optional optional) {
+                    flags |= OPTIONAL_COLOR;
+                    color = optional.color();
+                }
+                if (!plain && !element.material.isNull()) flags |= MATERIAL;
+                out.writeByte(flags);
+                writeVarInt(out, strings.getInt(element.symbol));
+                if ((flags & (ALWAYS_COLOR | OPTIONAL_COLOR)) != 0) out.writeInt(color);
+                if ((flags & MATERIAL) != 0)
+                    writeVarInt(out, strings.getInt(element.material.getResourceLocation().toString()));
+            }
+        }
+    }
+
+    public static byte[] write(Map<String, Molecule> molecules) throws IOException {
+        final var tables = new Tables();
+        final var body = new ByteArrayOutputStream();
+        final var bodyOut = new DataOutputStream(body);
+        final var names = molecules.keySet().stream().sorted().toList();
+        writeVarInt(bodyOut, names.size());
+        final var molecule = new ByteArrayOutputStream();
+        for (final var name : names) {
+            molecule.reset();
+            writeMolecule(new DataOutputStream(molecule), tables, molecules.get(name));
+            writeVarInt(bodyOut, tables.string(name));
+            writeVarInt(bodyOut, molecule.size());
+            molecule.writeTo(bodyOut);
+        }
+
+        final var pack = new ByteArrayOutputStream();
+        final var out = new DataOutputStream(pack);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        tables.write(out);
+        body.writeTo(out);
+        out.flush();
+        return pack.toByteArray();
+    }
+
+    private static void writeMolecule(DataOutputStream out, Tables tables, Molecule molecule) throws IOException {
+        writeVarInt(out, molecule.contents().size());
+        for (final var content : molecule.contents()) {
+            if (content instanceof Atom atom) {
+                out.writeByte(ATOM);
+                writeSignedVarInt(out, atom.index());
+                writeCounted(out, tables, atom.element());
+                final var sides = List.of(atom.above(), atom.right(), atom.below(), atom.left());
+                var mask = 0;
+                for (int i = 0; i < sides.size(); i++) if (sides.get(i).isPresent()) mask |= 1 << i;
+                out.writeByte(mask);
+                for (final var side : sides) if (side.isPresent()) writeCounted(out, tables, side.get());
+                writePosition(out, tables, atom.position());
+                writeSignedVarInt(out, atom.spinGroup());
+            } else if (content instanceof Bond bond) {
+                if (bond.lines().length >= CENTERED)
+                    throw new IllegalArgumentException("Bond has too many lines: " + bond.lines().length);
+                out.writeByte(BOND);
+                writeSignedVarInt(out, bond.a());
+                writeSignedVarInt(out, bond.b());
+                out.writeByte((bond.centered() ? CENTERED : 0) | bond.lines().length);
+                for (int i = 0; i < bond.lines().length; i += 2) {
+                    final var high = i + 1 < bond.lines().length ? bond.lines()[i + 1].ordinal() : 0;
+                    out.writeByte(bond.lines()[i].ordinal() | high << 4);
+                }
+            } else if (content instanceof Parens parens) {
+                out.writeByte(PARENS);
+                writeVarInt(out, tables.string(parens.sub()));
+                writeVarInt(out, tables.string(parens.sup()));
+                writeInts(out, parens.atoms());
+            } else if (content instanceof CircleTransformation ct) {
+                out.writeByte(CIRCLE);
+                writeVarInt(out, tables.floatValue(ct.A().m00()));
+                writeVarInt(out, tables.floatValue(ct.A().m01()));
+                writeVarInt(out, tables.floatValue(ct.A().m10()));
+                writeVarInt(out, tables.floatValue(ct.A().m11()));
+                writeInts(out, ct.atoms());
+            } else if (content instanceof BenzeneRing ring) {
+                out.writeByte(BENZENE);
+                writeInts(out, ring.indices());
+                writePosition(out, tables, ring.first());
+                writePosition(out, tables, ring.next());
+                writeSignedVarInt(out, ring.spinGroup());
+                writeVarInt(out, tables.floatValue(ring.angle()));
+            } else throw new IllegalArgumentException("Can't pack molecule element of type " + content.type());
+        }
+        writeVarInt(out, molecule.spinGroups().size());
+        for (int i = 0; i < molecule.spinGroups().size(); i++)
+            writeVarInt(out, tables.floatValue(molecule.spinGroups().getFloat(i)));
+    }
+
+    private static void writeCounted(DataOutputStream out, Tables tables, Element.Counted counted) throws IOException {
+        writeVarInt(out, tables.element(counted.element()));
+        writeSignedVarInt(out, counted.count());
+    }
+
+    private static void writePosition(DataOutputStream out, Tables tables, Vector3f position) throws IOException {
+        writeVarInt(out, tables.floatValue(position.x));
+        writeVarInt(out, tables.floatValue(position.y));
+        writeVarInt(out, tables.floatValue(position.z));
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        writeVarInt(out, values.length);
+        for (final var value : values) writeSignedVarInt(out, value);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static void writeSignedVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarInt(out, value << 1 ^ value >> 31);
+    }
+
+    private final ByteBuffer buf;
+    private final String[] strings;
+    private final float[] floats;
+    private final Element[] elements;
+    private final Object2IntMap<String> offsets = new Object2IntOpenHashMap<>();
+
+    private MoleculePack(ByteBuffer buf) {
+        if (buf.getInt() != MAGIC) throw new IllegalArgumentException("Not a molecule pack");
+        final var version = buf.get();
+        if (version != VERSION) throw new IllegalArgumentException("Unsupported molecule pack version " + version);
+
+        strings = new String[readVarInt(buf)];
+        for (int i = 0; i < strings.length; i++) {
+            final var length = readVarInt(buf);
+            strings[i] = StandardCharsets.UTF_8.decode(buf.slice(buf.position(), length)).toString();
+            buf.position(buf.position() + length);
+        }
+        floats = new float[readVarInt(buf)];
+        for (int i = 0; i < floats.length; i++) floats[i] = buf.getFloat();
+        elements = new Element[readVarInt(buf)];
+        for (int i = 0; i < elements.length; i++) {
+            final var flags = buf.get();
+            final var symbol = strings[readVarInt(buf)];
+            if ((flags & PLAIN) != 0) {
+                elements[i] = Element.create(symbol);
+                continue;
+            }
+            final var invisible = (flags & INVISIBLE) != 0;
+            final Element.Color color;
+            if ((flags & ALWAYS_COLOR) != 0) color = new Element.Color.Always(buf.getInt());
+            else if ((flags & OPTIONAL_COLOR) != 0) color = new Element.Color.Optional(buf.getInt());
+            else color = Element.Color.NONE;
+            if ((flags & MATERIAL) == 0 && color instanceof Element.Color.None) {
+                elements[i] = Element.create(symbol, invisible);
+                continue;
+            }
+            final var material = (flags & MATERIAL) != 0 ?
+                    GTCEuAPI.materialManager.getMaterial(strings[readVarInt(buf)]) : null;
+            elements[i] = Element.create(symbol, invisible, color, material);
+        }
+
+        // molecules themselves are only decoded when asked for
+        final var count = readVarInt(buf);
+        for (int i = 0; i < count; i++) {
+            final var name = strings[readVarInt(buf)];
+            final var length = readVarInt(buf);
+            offsets.put(name, buf.position());
+            buf.position(buf.position() + length);
+        }
+        this.buf = buf;
+    }
+
+    /**
+     * Reads the tables and the index of a pack. The buffer is kept, and must not be changed afterwards.
+     *
+     * @throws IllegalArgumentException if the buffer isn't a pack of a version this reader understands
+     */
+    public static MoleculePack read(ByteBuffer buf) {
+        return new MoleculePack(buf);
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(offsets.keySet());
+    }
+
+    public boolean has(String name) {
+        return offsets.containsKey(name);
+    }
+
+    /** Decodes one molecule. Safe to call from several threads at once. */
+    public @Nullable Molecule molecule(String name) {
+        if (!offsets.containsKey(name)) return null;
+        return readMolecule(buf.duplicate().position(offsets.getInt(name)));
+    }
+
+    private Molecule readMolecule(ByteBuffer buf) {
+        final var molecule = new Molecule();
+        final var contents = readVarInt(buf);
+        for (int i = 0; i < contents; i++) {
+            final var type = buf.get();
+            molecule.add(switch (type) {
+                case ATOM -> {
+                    final var index = readSignedVarInt(buf);
+                    final var element = readCounted(buf);
+                    final var mask = buf.get();
+                    final var above = (mask & 1) != 0 ? Optional.of(readCounted(buf)) :
+                            Optional.<Element.Counted>empty();
+                    final var right = (mask & 2) != 0 ? Optional.of(readCounted(buf)) :
+                            Optional.<Element.Counted>empty();
+                    final var below = (mask & 4) != 0 ? Optional.of(readCounted(buf)) :
+                            Optional.<Element.Counted>empty();
+                    final var left = (mask & 8) != 0 ? Optional.of(readCounted(buf)) :
+                            Optional.<Element.Counted>empty();
+                    yield new Atom(index, element, above, right, below, left, readPosition(buf),
+                            readSignedVarInt(buf));
+                }
+                case BOND -> {
+                    final int a = readSignedVarInt(buf), b = readSignedVarInt(buf);
+                    final var header = buf.get() & 0xff;
+                    final var lines = new Bond.Line[header & ~CENTERED];
+                    for (int l = 0; l < lines.length; l += 2) {
+                        final var packed = buf.get();
+                        lines[l] = Bond.Line.values()[packed & 0xf];
+                        if (l + 1 < lines.length) lines[l + 1] = Bond.Line.values()[packed >> 4 & 0xf];
+                    }
+                    yield new Bond(a, b, (header & CENTERED) != 0, lines);
+                }
+                case PARENS -> new Parens(strings[readVarInt(buf)], strings[readVarInt(buf)], readInts(buf));
+                case CIRCLE -> new CircleTransformation(new Matrix2f(floats[readVarInt(buf)], floats[readVarInt(buf)],
+                        floats[readVarInt(buf)], floats[readVarInt(buf)]), readInts(buf));
+                case BENZENE -> new BenzeneRing(readInts(buf), readPosition(buf), readPosition(buf),
+                        readSignedVarInt(buf), floats[readVarInt(buf)]);
+                default -> throw new IllegalArgumentException("Unknown molecule element type " + type);
+            });
+        }
+        final var spin = new float[readVarInt(buf)];
+        for (int i = 0; i < spin.length; i++) spin[i] = floats[readVarInt(buf)];
+        if (spin.length > 0) molecule.spinGroups(FloatArrayList.wrap(spin));
+        return molecule;
+    }
+
+    private Element.Counted readCounted(ByteBuffer buf) {
+        return elements[readVarInt(buf)].count(readSignedVarInt(buf));
+    }
+
+    private Vector3f readPosition(ByteBuffer buf) {
+        return new Vector3f(floats[readVarInt(buf)], floats[readVarInt(buf)], floats[readVarInt(buf)]);
+    }
+
+    private static int[] readInts(ByteBuffer buf) {
+        final var values = new int[readVarInt(buf)];
+        for (int i = 0; i < values.length; i++) values[i] = readSignedVarInt(buf);
+        return values;
+    }
+
+    private static int readVarInt(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            final var b = buf.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+            if (shift >= 28) throw new IllegalArgumentException("Malformed varint in molecule pack");
+        }
+    }
+
+    private static int readSignedVarInt(ByteBuffer buf) {
+        final var value = readVarInt(buf);
+        return value >>> 1 ^ -(value & 1);
+    }
+}
@@ -0,0 +1,254 @@
+package com.rubenverg.moldraw.molecule;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import org.joml.Matrix2f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A {@link Molecule} stored in primitive columns instead of element records, for keeping many loaded molecules around
+ * cheaply. Atoms are split into index, element id, count, position and spin group columns, with a bitmask per atom of
+ * which side labels are present; bonds are atom pairs plus their lines packed into bytes; the atoms covered by parens,
+ * circles and rings share one int column. {@link #unpack()} gives back a molecule equal to the one packed, floats
+ * included, so the conversion is safe for anything that serializes molecules.
+ */
+public final class PackedMolecule {
+
+    private static final byte ATOM = 0, BOND = 1, PARENS = 2, CIRCLE = 3, BENZENE = 4;
+    private static final int CENTERED = 0x80;
+
+    // element ids, shared by every packed molecule; elements are interned and never removed, so ids stay valid
+    private static final List<Element> ELEMENTS = new ArrayList<>();
+    private static final Reference2IntMap<Element> ELEMENT_IDS = new Reference2IntOpenHashMap<>();
+
+    private static char elementId(Element element) {
+        synchronized (ELEMENTS) {
+            if (!ELEMENT_IDS.containsKey(element)) {
+                if (ELEMENTS.size() > Character.MAX_VALUE) throw new IllegalStateException("Too many elements");
+                ELEMENT_IDS.put(element, ELEMENTS.size());
+                ELEMENTS.add(element);
+            }
+            return (char) ELEMENT_IDS.getInt(element);
+        }
+    }
+
+    private static Element element(char id) {
+        synchronized (ELEMENTS) {
+            return ELEMENTS.get(id);
+        }
+    }
+
+    private final byte[] order;
+
+    private final int[] atomIndices;
+    private final char[] atomElements;
+    private final int[] atomCounts;
+    private final byte[] atomLabels;
+    private final float[] atomPositions;
+    private final int[] atomSpinGroups;
+    private final char[] labelElements;
+    private final int[] labelCounts;
+
+    private final int[] bondAtoms;
+    private final byte[] bondLines;
+
+    private final String[] parensTexts;
+    private final float[] circleMatrices;
+    private final float[] ringGeometry;
+    private final int[] ringSpinGroups;
+    private final int[] atomLists;
+
+    private final float[] spinGroups;
+
+    private PackedMolecule(Builder builder) {
+        order = builder.order.toByteArray();
+        atomIndices = builder.atomIndices.toIntArray();
+        atomElements = builder.atomElements.toCharArray();
+        atomCounts = builder.atomCounts.toIntArray();
+        atomLabels = builder.atomLabels.toByteArray();
+        atomPositions = builder.atomPositions.toFloatArray();
+        atomSpinGroups = builder.atomSpinGroups.toIntArray();
+        labelElements = builder.labelElements.toCharArray();
+        labelCounts = builder.labelCounts.toIntArray();
+        bondAtoms = builder.bondAtoms.toIntArray();
+        bondLines = builder.bondLines.toByteArray();
+        parensTexts = builder.parensTexts.toArray(String[]::new);
+        circleMatrices = builder.circleMatrices.toFloatArray();
+        ringGeometry = builder.ringGeometry.toFloatArray();
+        ringSpinGroups = builder.ringSpinGroups.toIntArray();
+        atomLists = builder.atomLists.toIntArray();
+        spinGroups = builder.spinGroups;
+    }
+
+    private static class Builder {
+
+        final ByteArrayList order = new ByteArrayList();
+        final IntArrayList atomIndices = new IntArrayList();
+        final CharArrayList atomElements = new CharArrayList();
+        final IntArrayList atomCounts = new IntArrayList();
+        final ByteArrayList atomLabels = new ByteArrayList();
+        final FloatArrayList atomPositions = new FloatArrayList();
+        final IntArrayList atomSpinGroups = new IntArrayList();
+        final CharArrayList labelElements = new CharArrayList();
+        final IntArrayList labelCounts = new IntArrayList();
+        final IntArrayList bondAtoms = new IntArrayList();
+        final ByteArrayList bondLines = new ByteArrayList();
+        final List<String> parensTexts = new ArrayList<>();
+        final FloatArrayList circleMatrices = new FloatArrayList();
+        final FloatArrayList ringGeometry = new FloatArrayList();
+        final IntArrayList ringSpinGroups = new IntArrayList();
+        final IntArrayList atomLists = new IntArrayList();
+        float[] spinGroups;
+
+        void atoms(int[] atoms) {
+            atomLists.add(atoms.length);
+            atomLists.addElements(atomLists.size(), atoms);
+        }
+
+        void position(Vector3f position) {
+            atomPositions.add(position.x);
+            atomPositions.add(position.y);
+            atomPositions.add(position.z);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the molecule contains elements other than atoms, bonds, parens, circles and
+     *                                  benzene rings, such as nested molecules
+     */
+    public static PackedMolecule pack(Molecule molecule) {
+        final var builder = new Builder();
+        for (final var content : molecule.contents()) {
+            if (content instanceof Atom atom) {
+                builder.order.add(ATOM);
+                builder.atomIndices.add(atom.index());
+                builder.atomElements.add(elementId(atom.element().element()));
+                builder.atomCounts.add(atom.element().count());
+                final var sides = List.of(atom.above(), atom.right(), atom.below(), atom.left());
+                var mask = 0;
+                for (int i = 0; i < sides.size(); i++) {
+                    if (sides.get(i).isEmpty()) continue;
+                    mask |= 1 << i;
+                    builder.labelElements.add(elementId(sides.get(i).get().element()));
+                    builder.labelCounts.add(sides.get(i).get().count());
+                }
+                builder.atomLabels.add((byte) mask);
+                builder.position(atom.position());
+                builder.atomSpinGroups.add(atom.spinGroup());
+            } else if (content instanceof Bond bond) {
+                if (bond.lines().length >= CENTERED)
+                    throw new IllegalArgumentException("Bond has too many lines: " + bond.lines().length);
+                builder.order.add(BOND);
+                builder.bondAtoms.add(bond.a());
+                builder.bondAtoms.add(bond.b());
+                builder.bondLines.add((byte) ((bond.centered() ? CENTERED : 0) | bond.lines().length));
+                for (int i = 0; i < bond.lines().length; i += 2) {
+                    final var high = i + 1 < bond.lines().length ? bond.lines()[i + 1].ordinal() : 0;
+                    builder.bondLines.add((byte) (bond.lines()[i].ordinal() | high << 4));
+                }
+            } else if (content instanceof Parens parens) {
+                builder.order.add(PARENS);
+                builder.parensTexts.add(parens.sub());
+                builder.parensTexts.add(parens.sup());
+                builder.atoms(parens.atoms());
+            } else if (content instanceof CircleTransformation ct) {
+                builder.order.add(CIRCLE);
+                builder.circleMatrices.add(ct.A().m00());
+                builder.circleMatrices.add(ct.A().m01());
+                builder.circleMatrices.add(ct.A().m10());
+                builder.circleMatrices.add(ct.A().m11());
+                builder.atoms(ct.atoms());
+            } else if (content instanceof BenzeneRing ring) {
+                builder.order.add(BENZENE);
+                builder.atoms(ring.indices());
+                builder.ringGeometry.add(ring.first().x);
+                builder.ringGeometry.add(ring.first().y);
+                builder.ringGeometry.add(ring.first().z);
+                builder.ringGeometry.add(ring.next().x);
+                builder.ringGeometry.add(ring.next().y);
+                builder.ringGeometry.add(ring.next().z);
+                builder.ringGeometry.add(ring.angle());
+                builder.ringSpinGroups.add(ring.spinGroup());
+            } else throw new IllegalArgumentException("Can't pack molecule element of type " + content.type());
+        }
+        builder.spinGroups = molecule.spinGroups().toFloatArray();
+        return new PackedMolecule(builder);
+    }
+
+    public Molecule unpack() {
+        final var molecule = new Molecule();
+        int atom = 0, label = 0, bond = 0, lineByte = 0, parens = 0, circle = 0, ring = 0, list = 0;
+        for (final var kind : order) {
+            switch (kind) {
+                case ATOM -> {
+                    final var mask = atomLabels[atom];
+                    final List<Optional<Element.Counted>> sides = new ArrayList<>(4);
+                    for (int i = 0; i < 4; i++) {
+                        if ((mask & 1 << i) == 0) sides.add(Optional.empty());
+                        else {
+                            sides.add(Optional.of(element(labelElements[label]).count(labelCounts[label])));
+                            label++;
+                        }
+                    }
+                    molecule.addNoTransform(new Atom(atomIndices[atom],
+                            element(atomElements[atom]).count(atomCounts[atom]),
+                            sides.get(0), sides.get(1), sides.get(2), sides.get(3),
+                            new Vector3f(atomPositions[3 * atom], atomPositions[3 * atom + 1],
+                                    atomPositions[3 * atom + 2]),
+                            atomSpinGroups[atom]));
+                    atom++;
+                }
+                case BOND -> {
+                    final var header = bondLines[lineByte++] & 0xff;
+                    final var lines = new Bond.Line[header & ~CENTERED];
+                    for (int l = 0; l < lines.length; l += 2) {
+                        final var packed = bondLines[lineByte++];
+                        lines[l] = Bond.Line.values()[packed & 0xf];
+                        if (l + 1 < lines.length) lines[l + 1] = Bond.Line.values()[packed >> 4 & 0xf];
+                    }
+                    molecule.addNoTransform(new Bond(bondAtoms[2 * bond], bondAtoms[2 * bond + 1],
+                            (header & CENTERED) != 0, lines));
+                    bond++;
+                }
+                case PARENS -> {
+                    final var atoms = new int[atomLists[list]];
+                    System.arraycopy(atomLists, list + 1, atoms, 0, atoms.length);
+                    list += atoms.length + 1;
+                    molecule.addNoTransform(new Parens(parensTexts[2 * parens], parensTexts[2 * parens + 1], atoms));
+                    parens++;
+                }
+                case CIRCLE -> {
+                    final var atoms = new int[atomLists[list]];
+                    System.arraycopy(atomLists, list + 1, atoms, 0, atoms.length);
+                    list += atoms.length + 1;
+                    final var m = 4 * circle;
+                    molecule.addNoTransform(new CircleTransformation(new Matrix2f(circleMatrices[m],
+                            circleMatrices[m + 1], circleMatrices[m + 2], circleMatrices[m + 3]), atoms));
+                    circle++;
+                }
+                case BENZENE -> {
+                    final var indices = new int[atomLists[list]];
+                    System.arraycopy(atomLists, list + 1, indices, 0, indices.length);
+                    list += indices.length + 1;
+                    final var g = 7 * ring;
+                    molecule.addNoTransform(new BenzeneRing(indices,
+                            new Vector3f(ringGeometry[g], ringGeometry[g + 1], ringGeometry[g + 2]),
+                            new Vector3f(ringGeometry[g + 3], ringGeometry[g + 4], ringGeometry[g + 5]),
+                            ringSpinGroups[ring], ringGeometry[g + 6]));
+                    ring++;
+                }
+                default -> throw new IllegalStateException("Unknown packed element kind " + kind);
+            }
+        }
+        if (spinGroups.length > 0) molecule.spinGroups(FloatArrayList.wrap(spinGroups.clone()));
+        return molecule;
+    }
+}
@@ -1,8 +1,13 @@
 package com.rubenverg.moldraw.molecule;
 
-import com.google.gson.*;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.Nullable;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.Objects;
 
 public record Parens(
                      String sub,
@@ -37,36 +42,39 @@ public record Parens(
         return new Parens("", "+", atoms);
     }
 
-    public static class Json implements JsonSerializer<Parens>, JsonDeserializer<Parens> {
+    public static class Json extends TypeAdapter<Parens> {
 
         private Json() {}
 
         public static Json INSTANCE = new Json();
 
+        static Parens fromFields(ElementFields fields) {
+            if (Objects.isNull(fields.atoms)) throw new JsonParseException("Parens JSON must have atoms property");
+            return new Parens(Objects.requireNonNullElse(fields.sub, ""), Objects.requireNonNullElse(fields.sup, ""),
+                    fields.atoms);
+        }
+
         @Override
-        public Parens deserialize(JsonElement jsonElement, Type type,
-                                  JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            if (!jsonElement.isJsonObject()) throw new JsonParseException("Parens JSON must be an object");
-            final var obj = jsonElement.getAsJsonObject();
-            String sub = "", sup = "";
-            if (obj.has("sub")) sub = obj.get("sub").getAsString();
-            if (obj.has("sup")) sup = obj.get("sup").getAsString();
-            if (!obj.has("atoms")) throw new JsonParseException("Parens JSON must have atoms property");
-            final var atoms = obj.getAsJsonArray("atoms").asList().stream().mapToInt(JsonElement::getAsInt).toArray();
-            return new Parens(sub, sup, atoms);
+        public @Nullable Parens read(JsonReader in) throws IOException {
+            if (ElementFields.skipNull(in)) return null;
+            return fromFields(ElementFields.read(in, "Parens JSON must be an object"));
+        }
+
+        static void writeFields(JsonWriter out, Parens parens) throws IOException {
+            if (!parens.sub.isEmpty()) out.name("sub").value(parens.sub);
+            if (!parens.sup.isEmpty()) out.name("sup").value(parens.sup);
+            ElementFields.writeInts(out, "atoms", parens.atoms);
         }
 
         @Override
-        public JsonElement serialize(Parens parens, Type type, JsonSerializationContext jsonSerializationContext) {
-            final var obj = new JsonObject();
-            if (!parens.sub.isEmpty()) obj.addProperty("sub", parens.sub);
-            if (!parens.sup.isEmpty()) obj.addProperty("sup", parens.sup);
-            final var atomsArr = new JsonArray();
-            for (final var atom : parens.atoms) {
-                atomsArr.add(atom);
+        public void write(JsonWriter out, @Nullable Parens parens) throws IOException {
+            if (Objects.isNull(parens)) {
+                out.nullValue();
+                return;
             }
-            obj.add("atoms", atomsArr);
-            return obj;
+            out.beginObject();
+            writeFields(out, parens);
+            out.endObject();
         }
     }
 }
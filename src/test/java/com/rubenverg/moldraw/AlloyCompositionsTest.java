@@ -0,0 +1,45 @@
+package com.rubenverg.moldraw;
+
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+import com.gregtechceu.gtceu.api.data.chemical.material.stack.MaterialStack;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+import oshi.util.tuples.Pair;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AlloyCompositionsTest {
+
+    private static Material material(String formula, long mass, MaterialStack... components) {
+        final var material = mock(Material.class);
+        when(material.getChemicalFormula()).thenReturn(formula);
+        when(material.getMass()).thenReturn(mass);
+        when(material.getMaterialComponents()).thenReturn(ImmutableList.copyOf(components));
+        return material;
+    }
+
+    private static List<String> describe(List<Pair<Material, Long>> components) {
+        return components.stream().map(pair -> pair.getB() + " " + pair.getA().getChemicalFormula()).toList();
+    }
+
+    @Test
+    void innerMaterialInSeveralComponentsIsCountedByEachAmount() {
+        final var iron = material("Fe", 56);
+        final var copper = material("Cu", 64);
+        final var nickel = material("Ni", 59);
+        final var a = material("FeCu", 120, new MaterialStack(iron, 1), new MaterialStack(copper, 1));
+        final var b = material("FeNi3", 233, new MaterialStack(iron, 1), new MaterialStack(nickel, 3));
+        final var alloy = material("(FeCu)(FeNi3)2", 586, new MaterialStack(a, 1), new MaterialStack(b, 2));
+
+        final var compositions = AlloyCompositions.compute(List.of(alloy));
+
+        // 1/2 Fe from a and 2 * 1/4 Fe from b; the amount of b used to be dropped when iron came up again
+        assertEquals(List.of("3 Ni", "2 Fe", "1 Cu"), describe(compositions.get(alloy, true, false)));
+        assertEquals(List.of("2 FeNi3", "1 FeCu"), describe(compositions.get(alloy, false, false)));
+    }
+}
@@ -0,0 +1,91 @@
+package com.rubenverg.moldraw.component;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link GraphicalUtils#plotPie} has to paint exactly what the old per pixel lookup painted through
+ * {@link GraphicalUtils#plotCircle}, pixel for pixel.
+ */
+class PieChartTest {
+
+    private static long key(int x, int y) {
+        return (long) x << 32 | (y & 0xffffffffL);
+    }
+
+    private static Long2IntOpenHashMap reference(int xm, int ym, int r, double[] stops, int[] colors) {
+        final var pixels = new Long2IntOpenHashMap();
+        // the lookup AlloyTooltipComponent used to run for every pixel
+        GraphicalUtils.plotCircle(xm, ym, r, GraphicalUtils::alwaysDraw, (xp, yp) -> {
+            final int rx = xp - xm, ry = yp - ym;
+            final double ng = Math.atan2(rx, -ry);
+            final double angle = ng < 0 ? ng + 2 * Math.PI : ng;
+            for (int si = 1; si <= stops.length; si++) {
+                if (angle <= stops[si % stops.length]) return colors[si - 1];
+            }
+            return colors[stops.length - 1];
+        }, (x0, y0, x1, y1, color) -> pixels.put(key(x0, y0), color));
+        return pixels;
+    }
+
+    private static Long2IntOpenHashMap pie(int xm, int ym, int r, double[] stops, int[] colors) {
+        final var pixels = new Long2IntOpenHashMap();
+        pixels.defaultReturnValue(-1);
+        GraphicalUtils.plotPie(xm, ym, r, stops, colors, (x0, y0, x1, y1, color) -> {
+            assertEquals(y0 + 1, y1);
+            for (int x = x0; x < x1; x++) {
+                assertEquals(-1, pixels.put(key(x, y0), color), "pixel painted twice");
+            }
+        });
+        return pixels;
+    }
+
+    /** Stops the way the tooltip computes them, from integer amounts. */
+    private static double[] stops(long... amounts) {
+        long total = 0;
+        for (final var amount : amounts) total += amount;
+        final var stops = new double[amounts.length];
+        long current = 0;
+        for (int i = 0; i < amounts.length; i++) {
+            stops[i] = Math.PI * 2 * current / total;
+            current += amounts[i];
+        }
+        return stops;
+    }
+
+    private static void assertSamePixels(int r, long... amounts) {
+        final var stops = stops(amounts);
+        final var colors = new int[amounts.length];
+        for (int i = 0; i < colors.length; i++) colors[i] = 0xff000000 | i;
+        assertEquals(reference(7, -3, r, stops, colors), pie(7, -3, r, stops, colors),
+                () -> "r = " + r + ", amounts = " + Arrays.toString(amounts));
+    }
+
+    @Test
+    void slicesOnTheAxesMatchPerPixelLookup() {
+        for (int r = 0; r <= 40; r++) {
+            assertSamePixels(r, 1);
+            assertSamePixels(r, 1, 1);
+            assertSamePixels(r, 1, 1, 1, 1);
+            assertSamePixels(r, 1, 1, 1, 1, 1, 1, 1, 1);
+            assertSamePixels(r, 3, 1);
+            assertSamePixels(r, 1, 0, 1);
+            assertSamePixels(r, 1000, 1);
+        }
+    }
+
+    @Test
+    void randomSlicesMatchPerPixelLookup() {
+        final var random = new Random(0x4d44);
+        for (int i = 0; i < 2000; i++) {
+            final var amounts = new long[1 + random.nextInt(8)];
+            for (int j = 0; j < amounts.length; j++) amounts[j] = 1 + random.nextInt(random.nextBoolean() ? 10 : 1000);
+            assertSamePixels(random.nextInt(48), amounts);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.rubenverg.moldraw.molecule;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Numbers the tree-based adapters accepted through {@code JsonPrimitive.getAsInt} and {@code getAsNumber().intValue()},
+ * which the streaming ones have to keep accepting with the same results.
+ */
+class LegacyJsonTest {
+
+    private static JsonReader reader(String json) {
+        final var reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    private static int readInt(String json) throws IOException {
+        return ElementFields.readInt(reader(json));
+    }
+
+    private static Element.Color readColor(String json) throws IOException {
+        return Element.Color.Json.INSTANCE.read(reader(json));
+    }
+
+    @Test
+    void intsAreTruncatedLikeLazilyParsedNumber() throws IOException {
+        assertEquals(3, readInt("3"));
+        assertEquals(-7, readInt("-7"));
+        assertEquals(3, readInt("3.7"));
+        assertEquals(-2, readInt("-2.5"));
+        assertEquals(1000, readInt("1e3"));
+        assertEquals(1410065407, readInt("9999999999"));
+        assertEquals(1661992960, readInt("1e20"));
+        assertEquals(5, readInt("\"5\""));
+    }
+
+    @Test
+    void colorsKeepTheirLegacyForms() throws IOException {
+        assertEquals(new Element.Color.Always(0xffffff), readColor("16777215"));
+        assertEquals(new Element.Color.Always(-1), readColor("4294967295"));
+        assertEquals(new Element.Color.Always(-1), readColor("4294967295.5"));
+        assertEquals(new Element.Color.Always(12), readColor("12.9"));
+        assertEquals(new Element.Color.Always(0xffff0000), readColor("\"#ff0000\""));
+        assertEquals(new Element.Color.Optional(0xff0000ff), readColor("{\"color\": 4278190335}"));
+        assertEquals(new Element.Color.Always(0xff0000ff), readColor("{\"color\": 4278190335.0, \"optional\": false}"));
+        assertEquals(Element.Color.NONE, readColor("null"));
+    }
+}
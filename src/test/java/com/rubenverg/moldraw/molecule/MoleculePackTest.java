@@ -0,0 +1,102 @@
+package com.rubenverg.moldraw.molecule;
+
+import com.gregtechceu.gtceu.api.GTCEuAPI;
+import com.gregtechceu.gtceu.api.data.chemical.material.Material;
+import com.gregtechceu.gtceu.common.data.GTMaterials;
+
+import net.minecraft.resources.ResourceLocation;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the packs committed under {@code src/generated} against the JSON files next to them, the way datagen writes
+ * them and the way {@link com.rubenverg.moldraw.MolDrawLoader} reads them back.
+ */
+class MoleculePackTest {
+
+    private static final Path ASSETS = Path.of("src/generated/resources/assets");
+
+    /** Fills in just enough of GTCEu for elements to be created: every material is a mock, found by its id. */
+    @BeforeAll
+    static void stubMaterials() throws ReflectiveOperationException {
+        for (final var field : GTMaterials.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != Material.class) continue;
+            if (Objects.nonNull(field.get(null))) continue;
+            final var material = mock(Material.class);
+            if (field.getName().equals("NULL")) when(material.isNull()).thenReturn(true);
+            field.set(null, material);
+        }
+        final Map<String, Material> materials = new ConcurrentHashMap<>();
+        final var manager = GTCEuAPI.class.getField("materialManager");
+        manager.set(null, mock(manager.getType(), invocation -> {
+            if (!invocation.getMethod().getName().equals("getMaterial")) return null;
+            return materials.computeIfAbsent(invocation.getArgument(0), id -> mock(Material.class, call ->
+                    call.getMethod().getName().equals("getResourceLocation") ? new ResourceLocation(id) :
+                            RETURNS_DEFAULTS.answer(call)));
+        }));
+    }
+
+    private static List<Path> namespaces() throws IOException {
+        try (final var dirs = Files.list(ASSETS)) {
+            return dirs.filter(dir -> Files.isDirectory(dir.resolve("molecules"))).sorted().toList();
+        }
+    }
+
+    private static Map<String, Molecule> json(Path namespace) throws IOException {
+        final Map<String, Molecule> molecules = new TreeMap<>();
+        try (final Stream<Path> files = Files.list(namespace.resolve("molecules"))) {
+            for (final var file : files.filter(f -> f.toString().endsWith(".json")).toList()) {
+                final var name = file.getFileName().toString();
+                try (final var reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+                    molecules.put(name.substring(0, name.length() - ".json".length()),
+                            Molecule.Json.INSTANCE.read(reader));
+                }
+            }
+        }
+        return molecules;
+    }
+
+    @Test
+    void committedPacksAreWhatDatagenWrites() throws IOException {
+        final var namespaces = namespaces();
+        assertFalse(namespaces.isEmpty());
+        for (final var namespace : namespaces) {
+            assertArrayEquals(MoleculePack.write(json(namespace)),
+                    Files.readAllBytes(namespace.resolve(MoleculePack.PATH)), namespace::toString);
+        }
+    }
+
+    @Test
+    void packedMoleculesDecodeToTheirJson() throws IOException {
+        for (final var namespace : namespaces()) {
+            final var json = json(namespace);
+            final var bytes = Files.readAllBytes(namespace.resolve(MoleculePack.PATH));
+            final var pack = MoleculePack.read(ByteBuffer.wrap(bytes));
+            assertEquals(json.keySet(), pack.names(), namespace::toString);
+            // the writer covers every field the reader fills in, so equal encodings mean equal molecules
+            for (final var entry : json.entrySet()) {
+                final var packed = pack.molecule(entry.getKey());
+                assertNotNull(packed);
+                assertArrayEquals(MoleculePack.write(Map.of(entry.getKey(), entry.getValue())),
+                        MoleculePack.write(Map.of(entry.getKey(), packed)), entry::getKey);
+            }
+        }
+    }
+}